@@ -6,6 +6,11 @@ plugins {
 dependencies {
   api(libs.paper)
   compileOnly(libs.annotations)
+
+  testImplementation(platform(libs.junit.bom))
+  testImplementation(libs.junit.jupiter)
+  testImplementation(libs.jol)
+  testRuntimeOnly(libs.junit.launcher)
 }
 
 java {
@@ -15,6 +20,11 @@ java {
 }
 
 tasks {
+  test {
+    useJUnitPlatform()
+    // JOL attaches its agent to the test JVM to read the object layout
+    jvmArgs("-Djdk.attach.allowAttachSelf=true", "-XX:+EnableDynamicAgentLoading")
+  }
   javadoc {
     options {
       this as StandardJavadocDocletOptions
@@ -1,27 +1,29 @@
 package net.wesjd.anvilgui;
 
-import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
-import it.unimi.dsi.fastutil.ints.IntArraySet;
-import it.unimi.dsi.fastutil.ints.IntSet;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.*;
 import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
+import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
-import org.bukkit.event.EventHandler;
-import org.bukkit.event.EventPriority;
-import org.bukkit.event.HandlerList;
-import org.bukkit.event.Listener;
+import org.bukkit.event.Event;
 import org.bukkit.event.inventory.*;
-import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.*;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.inventory.view.AnvilView;
-import org.bukkit.plugin.EventExecutor;
 import org.bukkit.plugin.Plugin;
-import org.bukkit.plugin.RegisteredListener;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * An anvil gui, used for gathering a user's input
@@ -41,78 +43,18 @@ public final class AnvilGUI {
     return stack == null ? ItemStack.empty() : stack.clone();
   }
 
-  /*
-  EcoEnchants handles the Anvil override in the most stupidly possible way. It registers it's EventHandler
-  with the priority HIGHEST so no other plugin can override it's behaviour, for lets say input purposes,
-  it additionally modifies the anvil in the next server tick in a scheduled task, because really fuck other plugins
-  trying to do anything properly inside the event, so we must prevent it receiving the event at all when the event
-  has already been handled by AnvilGUI.
-
-  UberEnchants is a bit more behaving, because it only modifies the state inside the event, but just discards the
-  description of the MONITOR priority entirely, so just prevent that plugin from receiving events as well
-   */
-  private static final Set<String> STUPID_ANVIL_CLASSES = Set.of(
-      "com.willfp.ecoenchants.mechanics.AnvilSupport",
-      "me.sciguymjm.uberenchant.utils.enchanting.AnvilEvents");
-  // ThreadLocal for Folia interop
-  private static final ThreadLocal<IntSet> STUPID_ANVIL_LOCKOUT =
-      ThreadLocal.withInitial(IntArraySet::new);
-
-  static {
-    HandlerList handlerList = PrepareAnvilEvent.getHandlerList();
-    for (RegisteredListener registeredListener : handlerList.getRegisteredListeners()) {
-      if (STUPID_ANVIL_CLASSES.contains(
-          registeredListener.getListener().getClass().getName())) {
-        handlerList.unregister(registeredListener);
-        EventExecutor eventExecutor = registeredListener.getExecutor();
-        handlerList.register(new RegisteredListener(
-            registeredListener.getListener(),
-            (listener, event) -> {
-              if (!STUPID_ANVIL_LOCKOUT.get().contains(event.hashCode())) {
-                eventExecutor.execute(listener, event);
-              }
-            },
-            registeredListener.getPriority(),
-            registeredListener.getPlugin(),
-            registeredListener.isIgnoringCancelled()));
-      }
-    }
-  }
-
   /**
-   * The {@link Plugin} that this anvil GUI is associated with
+   * The configuration shared by all anvil GUIs opened by the same {@link Builder}
    */
-  private final Plugin plugin;
+  private final Config config;
   /**
    * The player who has the GUI open
    */
   private final Player player;
-  /**
-   * The title of the anvil inventory
-   */
-  private final Component title;
-  /**
-   * The initial contents of the inventory
-   */
-  private final ItemStack[] initialContents;
-  /**
-   * A state that decides where the anvil GUI is able to get closed by the user
-   */
-  private final boolean preventClose;
-
-  /**
-   * A set of slot numbers that are permitted to be interacted with by the user. An interactable
-   * slot is one that is able to be minipulated by the player, i.e. clicking and picking up an item,
-   * placing in a new one, etc.
-   */
-  private final Set<Integer> interactableSlots;
-
-  /** An {@link Consumer} that is called when the anvil GUI is close */
-  private final Consumer<StateSnapshot> closeListener;
-  /** A flag that decides whether the async click handler can be run concurrently */
-  private final boolean concurrentClickHandlerExecution;
-  /** An {@link BiFunction} that is called when a slot is clicked */
-  private final ClickHandler clickHandler;
+  /** The publisher of the {@link SessionEvent}s of this anvil GUI, created on first use */
+  private SessionEventPublisher<SessionEvent> events;
+  /** The listeners of the {@link SessionEvent}s of this anvil GUI, created on first use */
+  private SessionEventBus listeners;
 
   private AnvilView view;
   /**
@@ -122,99 +64,77 @@ public final class AnvilGUI {
   /**
    * The listener holder class
    */
-  private final ListenUp listener = new ListenUp();
-
+  final ListenUp listener = new ListenUp();
   /**
-   * Represents the state of the inventory being open
+   * The session logic, carried out through the Bukkit API by a {@link PaperPort}
    */
-  private boolean open;
+  private final AnvilSessionCore<StateSnapshot, ResponseAction> core;
 
-  private ScheduledTask lockoutTask;
+  /**
+   * Whether the anvil GUI has been closed for good and will not be reopened
+   */
+  private boolean terminated;
 
   /**
    * Create an AnvilGUI
    *
-   * @param plugin           A {@link org.bukkit.plugin.java.JavaPlugin} instance
-   * @param player           The {@link Player} to open the inventory for
-   * @param title            What to have the text already set to
-   * @param initialContents  The initial contents of the inventory
-   * @param preventClose     Whether to prevent the inventory from closing
-   * @param closeListener    A {@link Consumer} when the inventory closes
-   * @param concurrentClickHandlerExecution Flag to allow concurrent execution of the click handler
-   * @param clickHandler     A {@link ClickHandler} that is called when the player clicks a slot
-   */
-  private AnvilGUI(
-      Plugin plugin,
-      Player player,
-      Component title,
-      ItemStack[] initialContents,
-      boolean preventClose,
-      Set<Integer> interactableSlots,
-      Consumer<StateSnapshot> closeListener,
-      boolean concurrentClickHandlerExecution,
-      ClickHandler clickHandler) {
-    this.plugin = plugin;
-    this.player = player;
-    this.title = title;
-    this.initialContents = initialContents;
-    this.preventClose = preventClose;
-    this.interactableSlots = interactableSlots;
-    this.closeListener = closeListener;
-    this.concurrentClickHandlerExecution = concurrentClickHandlerExecution;
-    this.clickHandler = clickHandler;
-  }
-
-  /**
-   * Opens the anvil GUI
+   * @param config The {@link Config} shared with the other anvil GUIs of the same builder
+   * @param player The {@link Player} to open the inventory for
    */
-  private void openInventory() {
-    plugin.getServer().getPluginManager().registerEvents(listener, plugin);
-
-    view = MenuType.ANVIL.create(player, title);
-    inventory = view.getTopInventory();
-    player.openInventory(view);
-
-    // We need to use setItem instead of setContents because a Minecraft ContainerAnvil
-    // contains two separate inventories: the result inventory and the ingredients inventory.
-    // The setContents method only updates the ingredients inventory unfortunately,
-    // but setItem handles the index going into the result inventory.
-    for (int i = 0; i < initialContents.length; i++) {
-      inventory.setItem(i, initialContents[i]);
-    }
-
-    lockoutTask = player
-        .getScheduler()
-        .runAtFixedRate(plugin, task -> STUPID_ANVIL_LOCKOUT.get().clear(), () -> {}, 1, 1);
-
-    open = true;
+  AnvilGUI(Config config, Player player) {
+    this.config = config;
+    this.player = player;
+    this.core = new AnvilSessionCore<>(config.policy, new PaperPort());
   }
 
   /**
    * Closes the inventory if it's open.
    */
   public void closeInventory() {
-    closeInventory0();
+    core.close(true);
     player.closeInventory();
   }
 
-  private void closeInventory0() {
-    if (!open) {
+  /**
+   * Closes the anvil GUI if it is still open, for closing it after the fact. Only ends the session
+   * if the player is looking at another inventory meanwhile, so that one stays open.
+   */
+  private void closeIfOpen() {
+    if (!core.isOpen()) {
       return;
     }
+    if (player.getOpenInventory().getTopInventory().equals(inventory)) {
+      closeInventory();
+    } else {
+      core.close(true);
+    }
+  }
 
-    open = false;
-
-    final StateSnapshot state = StateSnapshot.fromAnvilGUI(this);
-
-    inventory.clear(); // Prevent item drops
-
-    HandlerList.unregisterAll(listener);
+  /**
+   * Returns the plugin that opened this anvil gui
+   *
+   * @return The {@link Plugin} this anvil gui is associated with
+   */
+  public @NotNull Plugin getPlugin() {
+    return config.plugin;
+  }
 
-    lockoutTask.cancel();
+  /**
+   * Returns the player that has this anvil gui open
+   *
+   * @return The {@link Player} this anvil gui has been opened for
+   */
+  public @NotNull Player getPlayer() {
+    return player;
+  }
 
-    if (closeListener != null) {
-      closeListener.accept(state);
-    }
+  /**
+   * Returns whether this anvil gui is currently open
+   *
+   * @return true if the player currently sees this anvil gui
+   */
+  public boolean isOpen() {
+    return core.isOpen();
   }
 
   /**
@@ -235,49 +155,246 @@ public final class AnvilGUI {
     return Objects.requireNonNullElse(view.getRenameText(), "");
   }
 
-  private void runNextTick(@NotNull Runnable runnable) {
-    player.getScheduler().run(plugin, task -> runnable.run(), () -> {});
+  /**
+   * Listens for events of this anvil GUI. To also receive {@link SessionEvent.Opened} use
+   * {@link Builder#subscribe(Class, Delivery, Consumer)} instead.
+   *
+   * @param type     The type of events to listen for, {@link SessionEvent} for all of them
+   * @param delivery Where the listener is called
+   * @param listener The listener
+   * @param <E>      The type of the events
+   * @return The {@link Subscription} to stop listening
+   * @throws NullPointerException if any argument is null
+   */
+  public synchronized <E extends SessionEvent> @NotNull Subscription subscribe(
+      @NotNull Class<E> type, @NotNull Delivery delivery, @NotNull Consumer<? super E> listener) {
+    if (listeners == null) {
+      listeners = new SessionEventBus();
+    }
+    return listeners.subscribe(config.plugin, type, delivery, listener);
+  }
+
+  /**
+   * Checks whether anyone listens for events, so building them can be skipped otherwise
+   *
+   * @return true if an event would be received by anyone
+   */
+  private boolean hasEventListeners() {
+    final SessionEventPublisher<SessionEvent> events;
+    final SessionEventBus listeners;
+    synchronized (this) {
+      events = this.events;
+      listeners = this.listeners;
+    }
+    return (events != null && events.hasSubscribers())
+        || (listeners != null && !listeners.isEmpty())
+        || !AnvilGUIRuntime.get().globalEvents().isEmpty();
   }
 
   /**
-   * Simply holds the listeners for the GUI
+   * Hands the event to the {@link #events() publisher}, the listeners of this GUI and the global
+   * listeners
+   *
+   * @param event The event to post
    */
-  private final class ListenUp implements Listener {
+  private void postEvent(SessionEvent event) {
+    final SessionEventPublisher<SessionEvent> events;
+    final SessionEventBus listeners;
+    synchronized (this) {
+      events = this.events;
+      listeners = this.listeners;
+    }
+    if (events != null) {
+      events.publish(event);
+    }
+    if (listeners != null) {
+      listeners.post(event);
+    }
+    AnvilGUIRuntime.get().globalEvents().post(event);
+  }
+
+  /**
+   * Returns a publisher of everything that happens in this anvil GUI while it is open.
+   * <p>
+   * The publisher is hot, events that happened before subscribing are not replayed. Events are
+   * delivered on the thread owning the player and subscriptions complete once the GUI is closed for
+   * good. Slow subscribers are treated according to {@link Builder#eventBackpressure(Backpressure, int)}.
+   *
+   * @return The {@link Flow.Publisher} of {@link SessionEvent}s
+   */
+  public synchronized @NotNull Flow.Publisher<@NotNull SessionEvent> events() {
+    if (events == null) {
+      events = new SessionEventPublisher<>(config.eventBackpressure, config.eventBufferSize);
+      if (terminated) {
+        events.complete();
+      }
+    }
+    return events;
+  }
+
+  /**
+   * Describes how this anvil GUI has been opened, for {@link SessionRecorder}
+   *
+   * @return The {@link SessionReplay.OpenParameters} of this anvil GUI
+   */
+  SessionReplay.OpenParameters openParameters() {
+    final PlainTextComponentSerializer plainText = PlainTextComponentSerializer.plainText();
+    final ItemStack leftItem = config.initialContents[Slot.INPUT_LEFT];
+    final Component text =
+        leftItem != null && leftItem.hasItemMeta() ? leftItem.getItemMeta().displayName() : null;
+    return new SessionReplay.OpenParameters(
+        plainText.serialize(config.title),
+        text != null ? plainText.serialize(text) : "",
+        config.policy.preventClose(),
+        config.policy.concurrentClickHandlerExecution(),
+        config.policy.interactableSlots());
+  }
+
+  /**
+   * Carries out the decisions of the {@link AnvilSessionCore} through the Bukkit API
+   */
+  private final class PaperPort implements AnvilPort<StateSnapshot, ResponseAction> {
+
+    @Override
+    public void show() {
+      view = MenuType.ANVIL.create(player, config.title);
+      inventory = view.getTopInventory();
+      player.openInventory(view);
+
+      // Register after opening, so the close of a previous anvil GUI still reaches that one, but
+      // before setting the items, because that already fires a PrepareAnvilEvent
+      AnvilGUIRuntime.get().registry().register(AnvilGUI.this);
+
+      // We need to use setItem instead of setContents because a Minecraft ContainerAnvil
+      // contains two separate inventories: the result inventory and the ingredients inventory.
+      // The setContents method only updates the ingredients inventory unfortunately,
+      // but setItem handles the index going into the result inventory.
+      for (int i = 0; i < config.initialContents.length; i++) {
+        inventory.setItem(i, config.initialContents[i]);
+      }
+    }
+
+    @Override
+    public String text() {
+      return getRenameText();
+    }
+
+    @Override
+    public void clear() {
+      inventory.clear();
+
+      AnvilGUIRuntime.get().registry().unregister(AnvilGUI.this);
+      AnvilGUIRuntime.get().shared().release(inventory);
+    }
+
+    @Override
+    public StateSnapshot snapshot() {
+      return StateSnapshot.fromAnvilGUI(AnvilGUI.this);
+    }
+
+    @Override
+    public void apply(ResponseAction action) {
+      action.accept(AnvilGUI.this, player);
+    }
+
+    @Override
+    public void runNextTick(Runnable task) {
+      AnvilGUIRuntime.get().shared().submit(config.plugin, player, task);
+    }
+
+    @Override
+    public void error(Throwable exception) {
+      config
+          .plugin
+          .getSLF4JLogger()
+          .error("An exception occurred in the AnvilGUI clickHandler", exception);
+    }
+
+    @Override
+    public boolean observed() {
+      return hasEventListeners();
+    }
+
+    @Override
+    public void opened() {
+      postEvent(new SessionEvent.Opened(AnvilGUI.this, player));
+    }
 
-    // Clear inventory before server shutdown
-    @EventHandler
-    public void onPluginDisable(PluginDisableEvent event) {
-      if (event.getPlugin().equals(plugin)) {
-        closeInventory();
+    @Override
+    public void textChanged(String text) {
+      postEvent(new SessionEvent.TextChanged(AnvilGUI.this, player, text));
+    }
+
+    @Override
+    public void clicked(int slot, StateSnapshot state) {
+      postEvent(new SessionEvent.SlotClicked(AnvilGUI.this, slot, state));
+    }
+
+    @Override
+    public void applied(ResponseAction action) {
+      postEvent(new SessionEvent.ActionApplied(AnvilGUI.this, player, action));
+    }
+
+    @Override
+    public void closed(StateSnapshot state) {
+      if (hasEventListeners()) {
+        postEvent(new SessionEvent.Closed(AnvilGUI.this, state));
       }
     }
 
-    // Cant make this highest because then we might run after EcoEnchants
-    @EventHandler(priority = EventPriority.HIGH)
-    public void onPrepareAnvil(PrepareAnvilEvent event) {
+    @Override
+    public void terminated() {
+      synchronized (AnvilGUI.this) {
+        terminated = true;
+        if (events != null) {
+          events.complete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Simply holds the event handlers for the GUI, the player's inventory events are forwarded by the
+   * leader of the {@link SharedRuntime}, which may be another copy of the library
+   */
+  final class ListenUp implements Consumer<Event> {
+
+    @Override
+    public void accept(Event event) {
+      if (event instanceof PrepareAnvilEvent prepareAnvilEvent) {
+        onPrepareAnvil(prepareAnvilEvent);
+      } else if (event instanceof InventoryClickEvent inventoryClickEvent) {
+        onInventoryClick(inventoryClickEvent);
+      } else if (event instanceof InventoryDragEvent inventoryDragEvent) {
+        onInventoryDrag(inventoryDragEvent);
+      } else if (event instanceof InventoryCloseEvent inventoryCloseEvent) {
+        onInventoryClose(inventoryCloseEvent);
+      } else if (event instanceof PlayerQuitEvent) {
+        onPlayerQuit();
+      }
+    }
+
+    void onPrepareAnvil(PrepareAnvilEvent event) {
       if (!event.getInventory().equals(inventory)) {
         return;
       }
-      STUPID_ANVIL_LOCKOUT.get().add(event.hashCode());
+      AnvilGUIRuntime.get().shared().markHandled(event);
 
       view.setRepairCost(0);
 
-      ItemStack result = initialContents[Slot.OUTPUT];
+      ItemStack result = config.initialContents[Slot.OUTPUT];
       if (result != null) {
         event.setResult(result);
       }
-      player.updateInventory(); // Awaiting Paper #9683
-    }
+      final AnvilGUIRuntime.DegradationLevel level = AnvilGUIRuntime.get().degradationLevel();
+      if (level.compareTo(AnvilGUIRuntime.DegradationLevel.SKIP_RESYNC) < 0) {
+        player.updateInventory(); // Awaiting Paper #9683
+      }
 
-    /**
-     * Boolean storing the running status of the latest click handler to prevent double execution.
-     * All accesses to this boolean will be from the main server thread, except for the rare event
-     * that the plugin is disabled and the mainThreadExecutor throws an exception
-     */
-    private boolean clickHandlerRunning = false;
+      core.textChanged(getRenameText());
+    }
 
-    @EventHandler
-    public void onInventoryClick(InventoryClickEvent event) {
+    void onInventoryClick(InventoryClickEvent event) {
       if (!event.getInventory().equals(inventory)) {
         return;
       }
@@ -303,62 +420,278 @@ public final class AnvilGUI {
       // Using rawSlot makes sure only the top inventory is handled
       final int rawSlot = event.getRawSlot();
       if (rawSlot >= Slot.INPUT_LEFT && rawSlot <= Slot.OUTPUT) {
-        event.setCancelled(!interactableSlots.contains(rawSlot));
-        if (clickHandlerRunning && !concurrentClickHandlerExecution) {
-          // A click handler is running, don't launch another one
-          return;
-        }
+        event.setCancelled(!core.isInteractable(rawSlot));
+        core.click(rawSlot);
+      }
+    }
 
-        final CompletableFuture<List<ResponseAction>> actionsFuture =
-            clickHandler.apply(rawSlot, StateSnapshot.fromAnvilGUI(AnvilGUI.this));
-
-        clickHandlerRunning = true;
-        // If the plugin is disabled and the Executor throws an exception, the exception will be
-        // passed to the .handle method
-        actionsFuture
-            .thenAcceptAsync(
-                actions -> {
-                  for (final ResponseAction action : actions) {
-                    action.accept(AnvilGUI.this, clicker);
-                  }
-                },
-                AnvilGUI.this::runNextTick)
-            .handle((results, exception) -> {
-              if (exception != null) {
-                plugin
-                    .getSLF4JLogger()
-                    .error("An exception occurred in the AnvilGUI clickHandler", exception);
-              }
-              // Whether an exception occurred or not, set running to false
-              clickHandlerRunning = false;
-              return null;
-            });
+    void onInventoryDrag(InventoryDragEvent event) {
+      if (event.getInventory().equals(inventory) && !core.allowsDrag(event.getRawSlots())) {
+        event.setCancelled(true);
+      }
+    }
+
+    void onInventoryClose(InventoryCloseEvent event) {
+      if (!event.getInventory().equals(inventory)) {
+        return;
+      }
+      if (event.getReason() == InventoryCloseEvent.Reason.DISCONNECT) {
+        // Paper closes the inventory before the PlayerQuitEvent, close for good even if closing is
+        // prevented, the player won't be back
+        core.close(true);
+      } else {
+        core.closedByPlayer();
       }
     }
 
-    @EventHandler
-    public void onInventoryDrag(InventoryDragEvent event) {
-      if (event.getInventory().equals(inventory)) {
-        for (int slot : Slot.values) {
-          if (event.getRawSlots().contains(slot)) {
-            if (!interactableSlots.contains(slot)) {
-              event.setCancelled(true);
-              return;
+    void onPlayerQuit() {
+      // Normally closed on the disconnect already, but close for good in case the inventory has not
+      // been closed
+      core.close(true);
+    }
+  }
+
+  /**
+   * Returns the open anvil GUIs of a plugin
+   *
+   * @param plugin The {@link Plugin} that opened the anvil GUIs
+   * @return A snapshot of the open {@link AnvilGUI}s
+   * @throws NullPointerException if the plugin is null
+   */
+  public static @NotNull List<@NotNull AnvilGUI> sessions(@NotNull Plugin plugin) {
+    Objects.requireNonNull(plugin, "plugin");
+    return AnvilGUIRuntime.get().registry().sessions(plugin);
+  }
+
+  /**
+   * Returns the open anvil GUI of a player, if it has been opened through this copy of the library.
+   * Anvil GUIs of plugins shading their own copy are not known to it.
+   *
+   * @param player The {@link Player} to look up
+   * @return The {@link AnvilGUI} or null if the player has none open
+   * @throws NullPointerException if the player is null
+   */
+  public static @Nullable AnvilGUI session(@NotNull Player player) {
+    Objects.requireNonNull(player, "player");
+    return AnvilGUIRuntime.get().registry().session(player.getUniqueId());
+  }
+
+  /**
+   * Closes all open anvil GUIs of this copy of the library matching the filter. The anvil GUIs are
+   * closed on the threads owning their players, with one task per thread instead of one per anvil
+   * GUI.
+   *
+   * @param filter Decides which anvil GUIs to close, called on the current thread
+   * @return A future completing once all matching anvil GUIs have been closed
+   * @throws NullPointerException if the filter is null
+   */
+  public static @NotNull CompletableFuture<Void> closeAll(
+      @NotNull Predicate<? super @NotNull AnvilGUI> filter) {
+    return broadcastAction(filter, ResponseAction.close());
+  }
+
+  /**
+   * Updates the title of all open anvil GUIs of this copy of the library matching the filter
+   *
+   * @param filter             Decides which anvil GUIs to update, called on the current thread
+   * @param title              The new title to display
+   * @param preserveRenameText Whether to preserve the entered rename text
+   * @return A future completing once all matching anvil GUIs have been updated
+   * @throws NullPointerException if the filter or title is null
+   * @see ResponseAction#updateTitle(Component, boolean)
+   */
+  public static @NotNull CompletableFuture<Void> broadcastTitle(
+      @NotNull Predicate<? super @NotNull AnvilGUI> filter,
+      @NotNull Component title,
+      boolean preserveRenameText) {
+    return broadcastAction(filter, ResponseAction.updateTitle(title, preserveRenameText));
+  }
+
+  /**
+   * Applies the action to all open anvil GUIs of this copy of the library matching the filter. The
+   * action is applied on the threads owning the players, with one task per thread instead of one
+   * per anvil GUI. Anvil GUIs that have been closed in the meantime are skipped.
+   *
+   * @param filter Decides which anvil GUIs to apply the action to, called on the current thread
+   * @param action The {@link ResponseAction} to apply
+   * @return A future completing once the action has been applied to all matching anvil GUIs
+   * @throws NullPointerException if the filter or action is null
+   */
+  public static @NotNull CompletableFuture<Void> broadcastAction(
+      @NotNull Predicate<? super @NotNull AnvilGUI> filter, @NotNull ResponseAction action) {
+    Objects.requireNonNull(filter, "filter");
+    Objects.requireNonNull(action, "action");
+    return Regions.forEachGrouped(
+        AnvilGUIRuntime.get().registry().sessions(filter),
+        AnvilGUI::getPlayer,
+        AnvilGUI::getPlugin,
+        gui -> {
+          if (gui.isOpen()) {
+            action.accept(gui, gui.player);
+          }
+        });
+  }
+
+  /**
+   * Asks the player for input and waits for it, meant for sequential code running on virtual
+   * threads, where waiting only parks the virtual thread:
+   * <pre>{@code
+   * String name = AnvilGUI.prompt(player, nameTemplate, Duration.ofMinutes(1));
+   * String amount = AnvilGUI.prompt(player, amountTemplate, Duration.ofMinutes(1));
+   * }</pre>
+   * The anvil GUI is closed once the player clicks the output slot, the timeout expires or the
+   * waiting thread is interrupted.
+   *
+   * @param player   The {@link Player} to ask
+   * @param template The {@link Builder} providing everything except the click handler, see
+   *                 {@link #promptAsync(Player, Builder)}
+   * @param timeout  The time to wait for the input
+   * @return The text entered by the player
+   * @throws NullPointerException if any argument is null
+   * @throws NullPointerException when the plugin of the template has not been set yet
+   * @throws IllegalArgumentException when the template prevents closing
+   * @throws IllegalStateException when called on a server thread, which would never see the
+   *     anvil GUI open
+   * @throws CancellationException when the player closed the anvil GUI or left the server
+   * @throws TimeoutException when the player did not submit any input in time
+   * @throws InterruptedException when the waiting thread has been interrupted
+   */
+  public static @NotNull String prompt(
+      @NotNull Player player, @NotNull Builder template, @NotNull Duration timeout)
+      throws TimeoutException, InterruptedException {
+    Objects.requireNonNull(player, "player");
+    Objects.requireNonNull(timeout, "timeout");
+    if (Bukkit.isPrimaryThread() || Regions.ownsPlayer(player)) {
+      throw new IllegalStateException(
+          "prompt must not block a server thread, use promptAsync instead");
+    }
+
+    final CompletableFuture<String> result = promptAsync(player, template);
+    try {
+      return result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException | InterruptedException e) {
+      result.cancel(false);
+      throw e;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new CompletionException(e.getCause());
+    }
+  }
+
+  /**
+   * Asks the player for input. The anvil GUI is opened in the next tick on the thread owning the
+   * player, or right away if called on it.
+   * <p>
+   * Clicking the output slot closes the anvil GUI, the future completes with the entered text in
+   * the tick after. Closing the anvil GUI or leaving the server cancels the future. Completing the future in any
+   * other way, like cancelling it or {@link CompletableFuture#orTimeout timing out}, closes the
+   * anvil GUI. The click handler of the template is not used, its close listener is still called.
+   * Templates preventing the anvil GUI from being closed are rejected, as the player could not
+   * cancel the prompt.
+   *
+   * @param player   The {@link Player} to ask
+   * @param template The {@link Builder} providing the plugin, texts, items and other settings, read
+   *                 on the calling thread
+   * @return A future completing with the text entered by the player
+   * @throws NullPointerException if any argument is null
+   * @throws NullPointerException when the plugin of the template has not been set yet
+   * @throws IllegalArgumentException when the template prevents closing
+   */
+  public static @NotNull CompletableFuture<@NotNull String> promptAsync(
+      @NotNull Player player, @NotNull Builder template) {
+    Objects.requireNonNull(player, "player");
+    Objects.requireNonNull(template, "template");
+    Objects.requireNonNull(template.plugin, "Plugin must be set");
+    if (template.preventClose) {
+      throw new IllegalArgumentException("The template of a prompt must not prevent closing");
+    }
+
+    final CompletableFuture<String> result = new CompletableFuture<>();
+    final Plugin plugin = template.plugin;
+    final Consumer<StateSnapshot> templateCloseListener = template.closeListener;
+    // The text is only handed out in the tick after the anvil GUI has been closed, so code
+    // continuing with another prompt does not open it while this one is still open
+    final String[] submitted = new String[1];
+    final Config config = template.createConfig(
+        (slot, state) -> {
+          if (slot != Slot.OUTPUT || submitted[0] != null) {
+            return CompletableFuture.completedFuture(List.of());
+          }
+          submitted[0] = state.text();
+          return CompletableFuture.completedFuture(List.of(ResponseAction.close()));
+        },
+        state -> {
+          if (templateCloseListener != null) {
+            templateCloseListener.accept(state);
+          }
+          final String text = submitted[0];
+          final Runnable complete = text != null
+              ? () -> result.complete(text)
+              : () -> result.completeExceptionally(
+                  new CancellationException("The anvil GUI has been closed"));
+          try {
+            if (player.getScheduler().run(plugin, task -> complete.run(), complete) == null) {
+              // The player already left
+              complete.run();
             }
+          } catch (RuntimeException e) {
+            // The plugin has been disabled
+            complete.run();
           }
+        });
+
+    final AnvilGUI[] gui = new AnvilGUI[1];
+    final Runnable open = () -> {
+      // The prompt may have been cancelled before the anvil GUI could be opened
+      if (!result.isDone()) {
+        try {
+          gui[0] = open(config, player);
+        } catch (Throwable t) {
+          result.completeExceptionally(t);
         }
       }
+    };
+    if (Regions.ownsPlayer(player)) {
+      open.run();
+    } else if (player.getScheduler()
+            .run(config.plugin, task -> open.run(), () -> result.cancel(false))
+        == null) {
+      // The player already left
+      result.cancel(false);
     }
 
-    @EventHandler
-    public void onInventoryClose(InventoryCloseEvent event) {
-      if (open && event.getInventory().equals(inventory)) {
-        closeInventory0();
-        if (preventClose) {
-          runNextTick(AnvilGUI.this::openInventory);
-        }
+    result.whenComplete((text, exception) -> {
+      if (exception != null) {
+        // Closing and opening both happen on the thread owning the player, so gui is visible here
+        player.getScheduler().run(
+            config.plugin,
+            task -> {
+              if (gui[0] != null) {
+                gui[0].closeIfOpen();
+              }
+            },
+            null);
       }
+    });
+    return result;
+  }
+
+  /**
+   * Creates an anvil GUI and opens it for the player
+   *
+   * @param config The {@link Config} to open the anvil GUI with
+   * @param player The {@link Player} to open the anvil GUI for
+   * @return The opened {@link AnvilGUI}
+   */
+  private static AnvilGUI open(Config config, Player player) {
+    final AnvilGUI anvilGUI = new AnvilGUI(config, player);
+    for (ListenerSpec<?> listener : config.listeners) {
+      listener.subscribe(anvilGUI);
     }
+    anvilGUI.core.open();
+    return anvilGUI;
   }
 
   /**
@@ -387,8 +720,8 @@ public final class AnvilGUI {
     private ClickHandler clickHandler;
     /** A state that decides where the anvil GUI is able to be closed by the user */
     private boolean preventClose = false;
-    /** A set of integers containing the slot numbers that should be modifiable by the user. */
-    private Set<Integer> interactableSlots = Collections.emptySet();
+    /** A bit set containing the slot numbers that should be modifiable by the user. */
+    private int interactableSlots;
     /** The {@link Plugin} that this anvil GUI is associated with */
     private Plugin plugin;
     /** The text that will be displayed to the user */
@@ -401,6 +734,18 @@ public final class AnvilGUI {
     private ItemStack itemRight;
     /** An {@link ItemStack} to be placed in the output slot */
     private ItemStack itemOutput;
+    /** The strategy used for subscribers of {@link AnvilGUI#events()} that cannot keep up */
+    private Backpressure eventBackpressure = Backpressure.BUFFER;
+    /** The amount of events buffered per subscriber of {@link AnvilGUI#events()} */
+    private int eventBufferSize = 128;
+    /** The journal submitted inputs are written to */
+    private InputJournal journal;
+    /** The actions applied when a click is rejected because too many click handlers are running */
+    private List<ResponseAction> busyActions = List.of();
+    /** The listeners to register with every opened anvil GUI */
+    private final List<ListenerSpec<?>> listeners = new ArrayList<>();
+    /** The configuration of the last opened anvil GUI, reset whenever a value is changed */
+    private Config config;
 
     /**
      * Prevents the closing of the anvil GUI by the user
@@ -409,6 +754,7 @@ public final class AnvilGUI {
      */
     public @NotNull Builder preventClose() {
       preventClose = true;
+      config = null;
       return this;
     }
 
@@ -420,11 +766,14 @@ public final class AnvilGUI {
      * @return The {@link Builder} instance
      */
     public @NotNull Builder interactableSlots(int... slots) {
-      final Set<Integer> newValue = new HashSet<>();
+      int newValue = 0;
       for (int slot : slots) {
-        newValue.add(slot);
+        if (slot >= 0 && slot < Integer.SIZE) {
+          newValue |= 1 << slot;
+        }
       }
       interactableSlots = newValue;
+      config = null;
       return this;
     }
 
@@ -437,6 +786,7 @@ public final class AnvilGUI {
      */
     public @NotNull Builder onClose(@NotNull Consumer<@NotNull StateSnapshot> closeListener) {
       this.closeListener = Objects.requireNonNull(closeListener, "closeListener");
+      config = null;
       return this;
     }
 
@@ -456,6 +806,7 @@ public final class AnvilGUI {
      */
     public @NotNull Builder onClickAsync(@NotNull ClickHandler clickHandler) {
       this.clickHandler = Objects.requireNonNull(clickHandler, "clickHandler");
+      config = null;
       return this;
     }
 
@@ -470,11 +821,15 @@ public final class AnvilGUI {
      */
     public @NotNull Builder allowConcurrentClickHandlerExecution() {
       this.concurrentClickHandlerExecution = true;
+      config = null;
       return this;
     }
 
     /**
      * Do an action when a slot is clicked in the inventory
+     * <p>
+     * The returned actions that are {@link ResponseAction#isSafeDuringClick() safe during a click}
+     * are applied in the same tick, the remaining ones in the next tick.
      *
      * @param clickHandler A {@link BiFunction} that is called when the user clicks a slot. The
      *                     {@link Integer} is the slot number corresponding to {@link Slot}, the
@@ -493,6 +848,109 @@ public final class AnvilGUI {
       Objects.requireNonNull(clickHandler, "clickHandler");
       this.clickHandler = (slot, stateSnapshot) ->
           CompletableFuture.completedFuture(clickHandler.apply(slot, stateSnapshot));
+      config = null;
+      return this;
+    }
+
+    /**
+     * Do a potentially blocking action when a slot is clicked in the inventory
+     * <p>
+     * The click handler runs on its own virtual thread owned by the library, so it may block on I/O
+     * like database queries without occupying a platform thread. The amount of handlers running at
+     * the same time across the server is bounded by
+     * {@link AnvilGUIRuntime#blockingClickHandlerConcurrency(int)}. The returned actions are executed
+     * on the thread owning the player, like with {@link #onClickAsync(ClickHandler)}.
+     *
+     * @param clickHandler A {@link BiFunction} that is called when the user clicks a slot. The
+     *                     {@link Integer} is the slot number corresponding to {@link Slot}, the
+     *                     {@link StateSnapshot} contains information about the current state of the anvil,
+     *                     and the response is a list of {@link ResponseAction} to execute in the order
+     *                     that they are supplied.
+     * @return The {@link Builder} instance
+     * @throws NullPointerException when the function supplied is null
+     */
+    public @NotNull Builder onClickBlocking(
+        @NotNull BiFunction<
+                    @NotNull Integer,
+                    @NotNull StateSnapshot,
+                    @NotNull List<@NotNull ResponseAction>>
+                clickHandler) {
+      Objects.requireNonNull(clickHandler, "clickHandler");
+      this.clickHandler = (slot, stateSnapshot) -> AnvilGUIRuntime.get()
+          .supplyBlocking(() -> clickHandler.apply(slot, stateSnapshot));
+      config = null;
+      return this;
+    }
+
+    /**
+     * Responds to clicks that are rejected because too many click handlers are in flight, either
+     * server-wide or of this plugin. By default such clicks are ignored.
+     *
+     * @param actions The {@link ResponseAction}s to apply instead of calling the click handler
+     * @return The {@link Builder} instance
+     * @throws NullPointerException when the actions or one of them are null
+     * @see AnvilGUIRuntime#clickHandlerLimit(int)
+     * @see AnvilGUIRuntime#clickHandlerLimit(Plugin, int)
+     */
+    public @NotNull Builder onBusy(@NotNull ResponseAction... actions) {
+      this.busyActions = List.of(Objects.requireNonNull(actions, "actions"));
+      config = null;
+      return this;
+    }
+
+    /**
+     * Configures how {@link AnvilGUI#events()} treats subscribers that request events slower than
+     * they are produced
+     *
+     * @param backpressure The strategy to apply once the buffer of a subscriber is full
+     * @param bufferSize   The amount of events to buffer per subscriber, ignored for {@link Backpressure#LATEST}
+     * @return The {@link Builder} instance
+     * @throws NullPointerException when the backpressure is null
+     * @throws IllegalArgumentException when the bufferSize is not positive
+     */
+    public @NotNull Builder eventBackpressure(@NotNull Backpressure backpressure, int bufferSize) {
+      if (bufferSize <= 0) {
+        throw new IllegalArgumentException("bufferSize must be positive, was " + bufferSize);
+      }
+      this.eventBackpressure = Objects.requireNonNull(backpressure, "backpressure");
+      this.eventBufferSize = bufferSize;
+      config = null;
+      return this;
+    }
+
+    /**
+     * Listens for events of the anvil GUIs opened by this builder, including their
+     * {@link SessionEvent.Opened opening}. Unlike {@link #onClose(Consumer)} the listener may choose
+     * to be called off the server thread.
+     *
+     * @param type     The type of events to listen for, {@link SessionEvent} for all of them
+     * @param delivery Where the listener is called
+     * @param listener The listener
+     * @param <E>      The type of the events
+     * @return The {@link Builder} instance
+     * @throws NullPointerException if any argument is null
+     */
+    public <E extends SessionEvent> @NotNull Builder subscribe(
+        @NotNull Class<E> type, @NotNull Delivery delivery, @NotNull Consumer<? super E> listener) {
+      listeners.add(new ListenerSpec<>(
+          Objects.requireNonNull(type, "type"),
+          Objects.requireNonNull(delivery, "delivery"),
+          Objects.requireNonNull(listener, "listener")));
+      config = null;
+      return this;
+    }
+
+    /**
+     * Writes every input submitted by clicking the {@link Slot#OUTPUT output slot} to the journal,
+     * before the click handler is called
+     *
+     * @param journal The {@link InputJournal} to write to
+     * @return The {@link Builder} instance
+     * @throws NullPointerException when the journal is null
+     */
+    public @NotNull Builder journal(@NotNull InputJournal journal) {
+      this.journal = Objects.requireNonNull(journal, "journal");
+      config = null;
       return this;
     }
 
@@ -505,6 +963,7 @@ public final class AnvilGUI {
      */
     public @NotNull Builder plugin(@NotNull Plugin plugin) {
       this.plugin = Objects.requireNonNull(plugin, "plugin");
+      config = null;
       return this;
     }
 
@@ -517,6 +976,7 @@ public final class AnvilGUI {
      */
     public @NotNull Builder text(@NotNull String text) {
       this.itemText = Component.text(Objects.requireNonNull(text, "text"));
+      config = null;
       return this;
     }
 
@@ -529,6 +989,7 @@ public final class AnvilGUI {
      */
     public @NotNull Builder text(@NotNull Component text) {
       this.itemText = Objects.requireNonNull(text, "text");
+      config = null;
       return this;
     }
 
@@ -543,6 +1004,7 @@ public final class AnvilGUI {
      */
     public @NotNull Builder title(@NotNull String title) {
       this.title = Component.text(Objects.requireNonNull(title, "title"));
+      config = null;
       return this;
     }
 
@@ -555,6 +1017,7 @@ public final class AnvilGUI {
      */
     public @NotNull Builder title(@NotNull Component title) {
       this.title = Objects.requireNonNull(title, "title");
+      config = null;
       return this;
     }
 
@@ -567,6 +1030,7 @@ public final class AnvilGUI {
      */
     public @NotNull Builder itemLeft(@NotNull ItemStack item) {
       this.itemLeft = Objects.requireNonNull(item, "item").clone();
+      config = null;
       return this;
     }
 
@@ -579,6 +1043,7 @@ public final class AnvilGUI {
      */
     public @NotNull Builder itemRight(@NotNull ItemStack item) {
       this.itemRight = Objects.requireNonNull(item, "item").clone();
+      config = null;
       return this;
     }
 
@@ -591,6 +1056,7 @@ public final class AnvilGUI {
      */
     public @NotNull Builder itemOutput(@NotNull ItemStack item) {
       this.itemOutput = Objects.requireNonNull(item, "item").clone();
+      config = null;
       return this;
     }
 
@@ -607,28 +1073,123 @@ public final class AnvilGUI {
       Objects.requireNonNull(clickHandler, "clickHandler must be set");
       Objects.requireNonNull(player, "player");
 
+      return AnvilGUI.open(config(), player);
+    }
+
+    /**
+     * Returns the {@link Config} of this builder, created again only after a value changed
+     *
+     * @return The {@link Config} shared by the anvil GUIs opened until a value changes
+     */
+    Config config() {
+      if (config == null) {
+        config = createConfig(clickHandler, closeListener);
+      }
+      return config;
+    }
+
+    /**
+     * Captures the current values of this builder, to be shared by all anvil GUIs opened until a
+     * value changes
+     *
+     * @param clickHandler  The click handler to use instead of the one of this builder
+     * @param closeListener The close listener to use instead of the one of this builder
+     * @return The {@link Config}
+     */
+    private Config createConfig(ClickHandler clickHandler, Consumer<StateSnapshot> closeListener) {
+      ItemStack leftItem = itemLeft != null ? itemLeft.clone() : null;
       if (itemText != null) {
-        if (itemLeft == null) {
-          itemLeft = new ItemStack(Material.PAPER);
+        if (leftItem == null) {
+          leftItem = new ItemStack(Material.PAPER);
         }
 
-        ItemMeta paperMeta = itemLeft.getItemMeta();
+        ItemMeta paperMeta = leftItem.getItemMeta();
         paperMeta.displayName(itemText);
-        itemLeft.setItemMeta(paperMeta);
+        leftItem.setItemMeta(paperMeta);
       }
 
-      final AnvilGUI anvilGUI = new AnvilGUI(
+      if (journal != null) {
+        final InputJournal journal = this.journal;
+        final ClickHandler handler = clickHandler;
+        clickHandler = (slot, state) -> {
+          if (slot == Slot.OUTPUT) {
+            journal.record(slot, state);
+          }
+          return handler.apply(slot, state);
+        };
+      }
+
+      return new Config(
           plugin,
-          player,
           title,
-          new ItemStack[] {itemLeft, itemRight, itemOutput},
-          preventClose,
-          interactableSlots,
-          closeListener,
-          concurrentClickHandlerExecution,
-          clickHandler);
-      anvilGUI.openInventory();
-      return anvilGUI;
+          new ItemStack[] {leftItem, itemRight, itemOutput},
+          new AnvilSessionCore.Policy<>(
+              interactableSlots,
+              preventClose,
+              concurrentClickHandlerExecution,
+              clickHandler,
+              closeListener,
+              AnvilGUIRuntime.get().admission(plugin),
+              List.copyOf(busyActions),
+              ResponseAction::isSafeDuringClick,
+              AnvilGUIRuntime.get().tickHealth()),
+          eventBackpressure,
+          eventBufferSize,
+          List.copyOf(listeners));
+    }
+  }
+
+  /**
+   * The immutable part of an anvil GUI, shared by all anvil GUIs opened by the same {@link Builder}
+   * as long as none of its values changes. Only the per-player state lives in {@link AnvilGUI}.
+   */
+  static final class Config {
+
+    /** The {@link Plugin} that this anvil GUI is associated with */
+    private final Plugin plugin;
+    /** The title of the anvil inventory */
+    private final Component title;
+    /** The initial contents of the inventory, never modified */
+    private final ItemStack[] initialContents;
+    /**
+     * The slots the user may modify, whether the anvil GUI may be closed by the user, the click
+     * handler, which also writes to the journal, and the close listener
+     */
+    private final AnvilSessionCore.Policy<StateSnapshot, ResponseAction> policy;
+    /** The strategy used for subscribers of {@link AnvilGUI#events()} that cannot keep up */
+    private final Backpressure eventBackpressure;
+    /** The amount of events buffered per subscriber of {@link AnvilGUI#events()} */
+    private final int eventBufferSize;
+    /** The listeners to register with every anvil GUI */
+    private final List<ListenerSpec<?>> listeners;
+
+    private Config(
+        Plugin plugin,
+        Component title,
+        ItemStack[] initialContents,
+        AnvilSessionCore.Policy<StateSnapshot, ResponseAction> policy,
+        Backpressure eventBackpressure,
+        int eventBufferSize,
+        List<ListenerSpec<?>> listeners) {
+      this.plugin = plugin;
+      this.title = title;
+      this.initialContents = initialContents;
+      this.policy = policy;
+      this.eventBackpressure = eventBackpressure;
+      this.eventBufferSize = eventBufferSize;
+      this.listeners = listeners;
+    }
+  }
+
+  /**
+   * A listener registered through {@link Builder#subscribe(Class, Delivery, Consumer)}, waiting for
+   * the anvil GUI to be created
+   */
+  private record ListenerSpec<E extends SessionEvent>(
+      Class<E> type, Delivery delivery, Consumer<? super E> listener) {
+
+    private void subscribe(AnvilGUI anvilGUI) {
+      anvilGUI.subscribe(type, delivery, listener);
     }
   }
 
@@ -653,6 +1214,21 @@ public final class AnvilGUI {
   @FunctionalInterface
   public interface ResponseAction extends BiConsumer<@NotNull AnvilGUI, @NotNull Player> {
 
+    /**
+     * Whether the action may be applied while the click that caused it is still being processed.
+     * <p>
+     * When the click handler returns an already completed future, its actions are applied right
+     * away, up to the first action that is not safe. That one and all following are applied in the
+     * next tick, so the order is kept. Opening or closing inventories is never safe during a click,
+     * as Bukkit requires those to happen outside of the {@link InventoryClickEvent}. Custom actions
+     * are deferred unless they override this method.
+     *
+     * @return true if the action may be applied during the click
+     */
+    default boolean isSafeDuringClick() {
+      return false;
+    }
+
     /**
      * Replace the input text box value with the provided text value.
      * <br>
@@ -666,7 +1242,7 @@ public final class AnvilGUI {
      */
     static @NotNull ResponseAction replaceInputText(@NotNull String text) {
       Objects.requireNonNull(text, "text");
-      return (anvilgui, player) -> {
+      return safeDuringClick((anvilgui, player) -> {
         ItemStack item = anvilgui.getInventory().getItem(Slot.OUTPUT);
         if (item == null) {
           // Fallback on left input slot if player hasn't typed anything yet
@@ -682,7 +1258,7 @@ public final class AnvilGUI {
         meta.displayName(Component.text(text));
         cloned.setItemMeta(meta);
         anvilgui.getInventory().setItem(Slot.INPUT_LEFT, cloned);
-      };
+      });
     }
 
     /**
@@ -734,12 +1310,13 @@ public final class AnvilGUI {
     }
 
     /**
-     * Close the AnvilGUI
+     * Close the AnvilGUI. Does nothing if it has been closed before the action is applied, and
+     * leaves another inventory the player opened meanwhile open.
      *
      * @return The {@link ResponseAction} to achieve closing the AnvilGUI
      */
     static @NotNull ResponseAction close() {
-      return (anvilgui, player) -> anvilgui.closeInventory();
+      return (anvilgui, player) -> anvilgui.closeIfOpen();
     }
 
     /**
@@ -753,6 +1330,161 @@ public final class AnvilGUI {
       Objects.requireNonNull(runnable, "runnable");
       return (anvilgui, player) -> runnable.run();
     }
+
+    /**
+     * Marks an action as {@link #isSafeDuringClick() safe to apply during a click}. It must not
+     * open or close inventories of the player.
+     *
+     * @param action The action to mark
+     * @return The {@link ResponseAction} that may be applied during the click
+     * @throws NullPointerException when the action is null
+     */
+    static @NotNull ResponseAction safeDuringClick(@NotNull ResponseAction action) {
+      Objects.requireNonNull(action, "action");
+      return new ResponseAction() {
+        @Override
+        public void accept(@NotNull AnvilGUI anvilGUI, @NotNull Player player) {
+          action.accept(anvilGUI, player);
+        }
+
+        @Override
+        public boolean isSafeDuringClick() {
+          return true;
+        }
+      };
+    }
+  }
+
+  /**
+   * Something that happened in an {@link AnvilGUI}, published by {@link AnvilGUI#events()} and
+   * delivered to listeners registered with {@link AnvilGUI#subscribe(Class, Delivery, Consumer)}
+   */
+  public sealed interface SessionEvent {
+
+    /**
+     * Returns the anvil GUI the event happened in
+     *
+     * @return The {@link AnvilGUI}
+     */
+    @NotNull
+    AnvilGUI gui();
+
+    /**
+     * Returns the player that has the anvil GUI open
+     *
+     * @return The {@link Player}
+     */
+    @NotNull
+    Player player();
+
+    /**
+     * The anvil GUI has been opened, or reopened after the player tried to close it
+     *
+     * @param gui    The anvil GUI
+     * @param player The player that has the anvil GUI open
+     */
+    record Opened(@NotNull AnvilGUI gui, @NotNull Player player) implements SessionEvent {}
+
+    /**
+     * The player changed the text in the rename field
+     *
+     * @param gui    The anvil GUI
+     * @param player The player that typed
+     * @param text   The new text, never null
+     */
+    record TextChanged(@NotNull AnvilGUI gui, @NotNull Player player, @NotNull String text)
+        implements SessionEvent {}
+
+    /**
+     * The player clicked one of the anvil slots
+     *
+     * @param gui   The anvil GUI
+     * @param slot  The slot number corresponding to {@link Slot}
+     * @param state The state of the anvil at the time of the click
+     */
+    record SlotClicked(@NotNull AnvilGUI gui, int slot, @NotNull StateSnapshot state)
+        implements SessionEvent {
+
+      @Override
+      public @NotNull Player player() {
+        return state.player();
+      }
+    }
+
+    /**
+     * A {@link ResponseAction} returned by the click handler has been applied
+     *
+     * @param gui    The anvil GUI
+     * @param player The player the action has been applied for
+     * @param action The applied action
+     */
+    record ActionApplied(
+        @NotNull AnvilGUI gui, @NotNull Player player, @NotNull ResponseAction action)
+        implements SessionEvent {}
+
+    /**
+     * The anvil GUI has been closed
+     *
+     * @param gui   The anvil GUI
+     * @param state The state of the anvil right before it was closed
+     */
+    record Closed(@NotNull AnvilGUI gui, @NotNull StateSnapshot state) implements SessionEvent {
+
+      @Override
+      public @NotNull Player player() {
+        return state.player();
+      }
+    }
+  }
+
+  /**
+   * Decides on which thread a listener of {@link SessionEvent}s is called
+   */
+  public enum Delivery {
+    /**
+     * Call the listener right away on the thread the event happened on, usually the thread owning
+     * the player
+     */
+    INLINE,
+    /**
+     * Call the listener on a thread owned by the library. Events are still received in order.
+     */
+    ASYNC,
+    /**
+     * Call the listener in the next tick on the thread owning the player, or on the global region
+     * thread if the player has already left
+     */
+    ENTITY_SCHEDULER
+  }
+
+  /**
+   * A registered listener of {@link SessionEvent}s
+   */
+  public interface Subscription {
+
+    /**
+     * Stops the listener from receiving further events
+     */
+    void cancel();
+  }
+
+  /**
+   * Decides what happens to {@link SessionEvent}s when a subscriber of {@link AnvilGUI#events()} has
+   * not requested any more of them
+   */
+  public enum Backpressure {
+    /**
+     * Buffer the events, signalling an error to the subscriber once the buffer overflows
+     */
+    BUFFER,
+    /**
+     * Buffer the events, discarding the oldest buffered event once the buffer is full
+     */
+    DROP_OLDEST,
+    /**
+     * Only keep the latest event
+     */
+    LATEST
   }
 
   /**
@@ -762,7 +1494,7 @@ public final class AnvilGUI {
 
     private Slot() {}
 
-    private static final int[] values = new int[] {Slot.INPUT_LEFT, Slot.INPUT_RIGHT, Slot.OUTPUT};
+    static final int[] values = new int[] {Slot.INPUT_LEFT, Slot.INPUT_RIGHT, Slot.OUTPUT};
 
     /**
      * The slot on the far left, where the first input is inserted. An {@link ItemStack} is always inserted
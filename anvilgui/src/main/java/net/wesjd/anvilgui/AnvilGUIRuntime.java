@@ -0,0 +1,530 @@
+package net.wesjd.anvilgui;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Server-wide settings and resources shared by all {@link AnvilGUI}s
+ *
+ * @since 2.0
+ */
+public final class AnvilGUIRuntime {
+
+  private static final AnvilGUIRuntime INSTANCE = new AnvilGUIRuntime();
+
+  /**
+   * Returns the runtime shared by all anvil GUIs
+   *
+   * @return The {@link AnvilGUIRuntime} instance
+   */
+  public static @NotNull AnvilGUIRuntime get() {
+    return INSTANCE;
+  }
+
+  /**
+   * The executor running {@link AnvilGUI.Builder#onClickBlocking(java.util.function.BiFunction)
+   * blocking click handlers}, one virtual thread per handler
+   */
+  private final ExecutorService blockingExecutor = Executors.newThreadPerTaskExecutor(
+      Thread.ofVirtual().name("AnvilGUI-blocking-", 0).factory());
+  /** Bounds the amount of blocking click handlers that run at the same time */
+  private final ResizableSemaphore blockingPermits = new ResizableSemaphore(64);
+  /** The current value of {@link #blockingPermits} */
+  private int blockingConcurrency = 64;
+
+  private final AtomicInteger blockingWaiting = new AtomicInteger();
+  private final AtomicInteger blockingRunning = new AtomicInteger();
+
+  /** The executor of {@link AnvilGUI.Delivery#ASYNC} event listeners */
+  private final ExecutorService asyncExecutor = Executors.newThreadPerTaskExecutor(
+      Thread.ofVirtual().name("AnvilGUI-events-", 0).factory());
+  /** The listeners receiving the events of every anvil GUI */
+  private final SessionEventBus globalEvents = new SessionEventBus();
+  /** All open anvil GUIs */
+  private final SessionRegistry registry = new SessionRegistry();
+  /** Bounds the click handlers in flight across all plugins */
+  private final ClickAdmission admission = new ClickAdmission(null, 1024);
+  /** Bounds the click handlers in flight per plugin, within {@link #admission} */
+  private final Map<Plugin, ClickAdmission> pluginAdmissions = new ConcurrentHashMap<>();
+  /** The queue applying the actions of completed click handlers, used while this copy leads */
+  private final RegionTickQueue tickQueue =
+      new RegionTickQueue(TimeUnit.MILLISECONDS.toNanos(5));
+  /** The current degradation level of the server */
+  private final TickHealth tickHealth = new TickHealth();
+  /** Samples the tick time into {@link #tickHealth} */
+  private final TickHealthMonitor tickHealthMonitor = new TickHealthMonitor(tickHealth);
+  /** The dispatch, lockout and scheduling shared with the other copies of the library */
+  private final SharedRuntime shared = new SharedRuntime(this);
+
+  private AnvilGUIRuntime() {}
+
+  /**
+   * Sets the amount of blocking click handlers that are allowed to run at the same time, across all
+   * plugins. Handlers above that limit wait on their virtual thread until a running one finishes.
+   *
+   * @param concurrency The maximum amount of concurrently running blocking click handlers
+   * @return The {@link AnvilGUIRuntime} instance
+   * @throws IllegalArgumentException when the concurrency is not positive
+   */
+  public synchronized @NotNull AnvilGUIRuntime blockingClickHandlerConcurrency(int concurrency) {
+    if (concurrency <= 0) {
+      throw new IllegalArgumentException("concurrency must be positive, was " + concurrency);
+    }
+    final int delta = concurrency - blockingConcurrency;
+    if (delta > 0) {
+      blockingPermits.release(delta);
+    } else if (delta < 0) {
+      blockingPermits.reducePermits(-delta);
+    }
+    blockingConcurrency = concurrency;
+    return this;
+  }
+
+  /**
+   * Returns the maximum amount of blocking click handlers that are allowed to run at the same time
+   *
+   * @return The configured concurrency
+   */
+  public synchronized int blockingClickHandlerConcurrency() {
+    return blockingConcurrency;
+  }
+
+  /**
+   * Returns the amount of blocking click handlers that are waiting for one of the running ones to
+   * finish
+   *
+   * @return The amount of waiting handlers
+   */
+  public int blockingClickHandlersWaiting() {
+    return blockingWaiting.get();
+  }
+
+  /**
+   * Returns the amount of blocking click handlers that are currently running
+   *
+   * @return The amount of running handlers
+   */
+  public int blockingClickHandlersRunning() {
+    return blockingRunning.get();
+  }
+
+  /**
+   * Sets the amount of click handlers that may be in flight at the same time across all plugins. A
+   * click handler is in flight from being called until its future completes. Clicks above the limit
+   * are rejected right away, see {@link AnvilGUI.Builder#onBusy(AnvilGUI.ResponseAction...)}.
+   *
+   * @param limit The maximum amount of click handlers in flight, 1024 by default
+   * @return The {@link AnvilGUIRuntime} instance
+   * @throws IllegalArgumentException when the limit is not positive
+   */
+  public @NotNull AnvilGUIRuntime clickHandlerLimit(int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("limit must be positive, was " + limit);
+    }
+    admission.limit(limit);
+    return this;
+  }
+
+  /**
+   * Returns the amount of click handlers that may be in flight at the same time across all plugins
+   *
+   * @return The configured limit
+   */
+  public int clickHandlerLimit() {
+    return admission.limit();
+  }
+
+  /**
+   * Sets the amount of click handlers of a plugin that may be in flight at the same time, in
+   * addition to the {@link #clickHandlerLimit(int) server-wide limit}
+   *
+   * @param plugin The {@link Plugin} that opens the anvil GUIs
+   * @param limit  The maximum amount of click handlers in flight, unlimited by default
+   * @return The {@link AnvilGUIRuntime} instance
+   * @throws NullPointerException if the plugin is null
+   * @throws IllegalArgumentException when the limit is not positive
+   */
+  public @NotNull AnvilGUIRuntime clickHandlerLimit(@NotNull Plugin plugin, int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("limit must be positive, was " + limit);
+    }
+    admission(plugin).limit(limit);
+    return this;
+  }
+
+  /**
+   * Returns the amount of click handlers of a plugin that may be in flight at the same time
+   *
+   * @param plugin The {@link Plugin} that opens the anvil GUIs
+   * @return The configured limit
+   * @throws NullPointerException if the plugin is null
+   */
+  public int clickHandlerLimit(@NotNull Plugin plugin) {
+    return admission(plugin).limit();
+  }
+
+  /**
+   * Returns the amount of click handlers currently in flight across all plugins
+   *
+   * @return The amount of click handlers in flight
+   */
+  public int clickHandlersInFlight() {
+    return admission.inFlight();
+  }
+
+  /**
+   * Returns the amount of click handlers of a plugin currently in flight
+   *
+   * @param plugin The {@link Plugin} that opens the anvil GUIs
+   * @return The amount of click handlers in flight
+   * @throws NullPointerException if the plugin is null
+   */
+  public int clickHandlersInFlight(@NotNull Plugin plugin) {
+    return admission(plugin).inFlight();
+  }
+
+  /**
+   * Returns the amount of clicks rejected so far because too many click handlers were in flight
+   *
+   * @return The amount of rejected clicks across all plugins
+   */
+  public long rejectedClicks() {
+    return admission.rejected();
+  }
+
+  /**
+   * Returns the amount of clicks in anvil GUIs of a plugin rejected so far because too many click
+   * handlers were in flight, either server-wide or of the plugin
+   *
+   * @param plugin The {@link Plugin} that opens the anvil GUIs
+   * @return The amount of rejected clicks of the plugin
+   * @throws NullPointerException if the plugin is null
+   */
+  public long rejectedClicks(@NotNull Plugin plugin) {
+    return admission(plugin).rejected();
+  }
+
+  /**
+   * Sets the time each region may spend per tick on applying the actions of completed click
+   * handlers. The actions of all plugins are queued per region and applied by a single task per
+   * tick, actions left once the budget is used up are applied in the following tick.
+   * <p>
+   * The budget is shared with the plugins shading their own copy of the library. It is set on the
+   * copy currently applying the actions of all of them, once that copy's plugin is disabled the
+   * budget of the next one applies.
+   *
+   * @param budget The time per region and tick, 5 milliseconds by default
+   * @return The {@link AnvilGUIRuntime} instance
+   * @throws NullPointerException when the budget is null
+   * @throws IllegalArgumentException when the budget is negative
+   */
+  public @NotNull AnvilGUIRuntime tickBudget(@NotNull Duration budget) {
+    Objects.requireNonNull(budget, "budget");
+    if (budget.isNegative()) {
+      throw new IllegalArgumentException("budget must not be negative, was " + budget);
+    }
+    shared.tickBudget(budget.toNanos());
+    return this;
+  }
+
+  /**
+   * Returns the time each region may spend per tick on applying the actions of completed click
+   * handlers, shared with the other copies of the library
+   *
+   * @return The configured budget
+   */
+  public @NotNull Duration tickBudget() {
+    return Duration.ofNanos(shared.tickBudget());
+  }
+
+  /**
+   * Returns the amount of queued tasks, mostly actions of completed click handlers, waiting for
+   * their region to apply them. Includes the tasks of plugins shading their own copy of the
+   * library.
+   *
+   * @return The amount of queued tasks
+   */
+  public int queuedTasks() {
+    return shared.queuedTasks();
+  }
+
+  /**
+   * Returns how far anvil GUIs currently cut back on live features because the server is behind
+   *
+   * @return The current {@link DegradationLevel}
+   */
+  public @NotNull DegradationLevel degradationLevel() {
+    return tickHealth.level();
+  }
+
+  /**
+   * Returns the tick time the {@link #degradationLevel() degradation level} is based on, sampled
+   * once a second while anvil GUIs are being used. Folia does not report tick times, there it is
+   * estimated as 30 milliseconds plus the amount by which ticks overran their 50 milliseconds.
+   *
+   * @return The average tick time in milliseconds, 0 if not sampled yet
+   */
+  public double sampledTickTime() {
+    return tickHealth.tickTime();
+  }
+
+  /**
+   * Enables or disables adapting the {@link #degradationLevel() degradation level} to the tick time.
+   * Disabling returns to {@link DegradationLevel#NORMAL}.
+   *
+   * @param enabled Whether anvil GUIs cut back on live features while the server is behind, true by
+   *                default
+   * @return The {@link AnvilGUIRuntime} instance
+   */
+  public @NotNull AnvilGUIRuntime adaptiveDegradation(boolean enabled) {
+    tickHealthMonitor.enabled(enabled);
+    return this;
+  }
+
+  /**
+   * Returns whether the degradation level adapts to the tick time
+   *
+   * @return true if adaptive degradation is enabled
+   */
+  public boolean adaptiveDegradation() {
+    return tickHealthMonitor.enabled();
+  }
+
+  /**
+   * Sets the average tick times entering each degradation level. A level is entered as soon as the
+   * tick time reaches its threshold, and left once the tick time stayed below the threshold minus
+   * the {@link #degradationHysteresis(double) hysteresis} for five seconds.
+   *
+   * @param debounce   The tick time in milliseconds entering {@link DegradationLevel#DEBOUNCE}, 40
+   *                   by default
+   * @param skipResync The tick time entering {@link DegradationLevel#SKIP_RESYNC}, 45 by default
+   * @param noPreview  The tick time entering {@link DegradationLevel#NO_PREVIEW}, 50 by default
+   * @param submitOnly The tick time entering {@link DegradationLevel#SUBMIT_ONLY}, 60 by default
+   * @return The {@link AnvilGUIRuntime} instance
+   * @throws IllegalArgumentException when the thresholds are not positive and ascending
+   */
+  public @NotNull AnvilGUIRuntime degradationThresholds(
+      double debounce, double skipResync, double noPreview, double submitOnly) {
+    if (!(debounce > 0
+        && skipResync >= debounce
+        && noPreview >= skipResync
+        && submitOnly >= noPreview)) {
+      throw new IllegalArgumentException("thresholds must be positive and ascending");
+    }
+    tickHealth.thresholds(new double[] {0, debounce, skipResync, noPreview, submitOnly});
+    return this;
+  }
+
+  /**
+   * Sets how far below the threshold of the current level the tick time has to drop before the
+   * level is left again, so the level does not flap around a threshold
+   *
+   * @param hysteresis The distance in milliseconds, 5 by default
+   * @return The {@link AnvilGUIRuntime} instance
+   * @throws IllegalArgumentException when the hysteresis is negative
+   */
+  public @NotNull AnvilGUIRuntime degradationHysteresis(double hysteresis) {
+    if (!(hysteresis >= 0)) {
+      throw new IllegalArgumentException("hysteresis must not be negative, was " + hysteresis);
+    }
+    tickHealth.hysteresis(hysteresis);
+    return this;
+  }
+
+  /**
+   * Sets the minimum time between two reported rename text changes from
+   * {@link DegradationLevel#DEBOUNCE} on
+   *
+   * @param debounce The minimum time between two {@link AnvilGUI.SessionEvent.TextChanged} events
+   *                 of an anvil GUI, 250 milliseconds by default
+   * @return The {@link AnvilGUIRuntime} instance
+   * @throws NullPointerException when the debounce is null
+   * @throws IllegalArgumentException when the debounce is negative
+   */
+  public @NotNull AnvilGUIRuntime degradationDebounce(@NotNull Duration debounce) {
+    Objects.requireNonNull(debounce, "debounce");
+    if (debounce.isNegative()) {
+      throw new IllegalArgumentException("debounce must not be negative, was " + debounce);
+    }
+    tickHealth.debounceNanos(debounce.toNanos());
+    return this;
+  }
+
+  /**
+   * Listens for events of every {@link AnvilGUI} opened through this copy of the library, regardless
+   * of the plugin that opened it. The listener is removed when the plugin is disabled.
+   *
+   * @param plugin   The {@link Plugin} owning the listener, used for scheduling and error reporting
+   * @param type     The type of events to listen for, {@link AnvilGUI.SessionEvent} for all of them
+   * @param delivery Where the listener is called
+   * @param listener The listener
+   * @param <E>      The type of the events
+   * @return The {@link AnvilGUI.Subscription} to stop listening
+   * @throws NullPointerException if any argument is null
+   */
+  public <E extends AnvilGUI.SessionEvent> @NotNull AnvilGUI.Subscription subscribe(
+      @NotNull Plugin plugin,
+      @NotNull Class<E> type,
+      @NotNull AnvilGUI.Delivery delivery,
+      @NotNull Consumer<? super E> listener) {
+    return globalEvents.subscribe(plugin, type, delivery, listener);
+  }
+
+  /**
+   * Returns the bus of the listeners registered with
+   * {@link #subscribe(Plugin, Class, AnvilGUI.Delivery, Consumer)}
+   */
+  SessionEventBus globalEvents() {
+    return globalEvents;
+  }
+
+  /**
+   * Returns the runtime shared with the other copies of the library
+   */
+  SharedRuntime shared() {
+    return shared;
+  }
+
+  /**
+   * Returns the registry of all open anvil GUIs
+   */
+  SessionRegistry registry() {
+    return registry;
+  }
+
+  /**
+   * Returns the admission of the click handlers of a plugin
+   */
+  ClickAdmission admission(@NotNull Plugin plugin) {
+    Objects.requireNonNull(plugin, "plugin");
+    return pluginAdmissions.computeIfAbsent(
+        plugin, key -> new ClickAdmission(admission, Integer.MAX_VALUE));
+  }
+
+  /**
+   * Drops the per-plugin state of a disabled plugin
+   */
+  void forget(@NotNull Plugin plugin) {
+    tickHealthMonitor.release(plugin);
+    pluginAdmissions.remove(plugin);
+    shared.forget(plugin);
+  }
+
+  /**
+   * Drops the queued next tick tasks of a disabled plugin, called by the leader of the
+   * {@link SharedRuntime} for the plugins of all copies
+   */
+  void discardTasks(@NotNull Plugin plugin) {
+    tickQueue.discard(plugin);
+  }
+
+  /**
+   * Returns the queue running the next tick tasks of all anvil GUIs
+   */
+  RegionTickQueue tickQueue() {
+    return tickQueue;
+  }
+
+  TickHealth tickHealth() {
+    return tickHealth;
+  }
+
+  TickHealthMonitor tickHealthMonitor() {
+    return tickHealthMonitor;
+  }
+
+  /**
+   * Returns the executor used for work that should happen off the server threads
+   */
+  ExecutorService asyncExecutor() {
+    return asyncExecutor;
+  }
+
+  /**
+   * Runs the supplier on its own virtual thread once a permit for blocking handlers is available
+   *
+   * @param supplier The potentially blocking code to run
+   * @param <T> The type of the result
+   * @return A future completing with the result of the supplier
+   */
+  <T> CompletableFuture<T> supplyBlocking(@NotNull Supplier<T> supplier) {
+    Objects.requireNonNull(supplier, "supplier");
+    blockingWaiting.incrementAndGet();
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            blockingPermits.acquire();
+          } catch (InterruptedException e) {
+            blockingWaiting.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+          }
+          blockingWaiting.decrementAndGet();
+          blockingRunning.incrementAndGet();
+          try {
+            return supplier.get();
+          } finally {
+            blockingRunning.decrementAndGet();
+            blockingPermits.release();
+          }
+        },
+        blockingExecutor);
+  }
+
+  /**
+   * How far anvil GUIs cut back on live features while the server is behind. Every level includes
+   * the cutbacks of the levels before it.
+   */
+  public enum DegradationLevel {
+    /**
+     * All features are live
+     */
+    NORMAL,
+    /**
+     * Rename text changes are reported at most once per
+     * {@link #degradationDebounce(Duration) debounce interval} per anvil GUI
+     */
+    DEBOUNCE,
+    /**
+     * The player's inventory is no longer resynchronized after every keystroke
+     */
+    SKIP_RESYNC,
+    /**
+     * Rename text changes are no longer reported, so nothing previews the text while typing. The
+     * text is still part of the state handed to the click handler.
+     */
+    NO_PREVIEW,
+    /**
+     * Only clicks on the {@link AnvilGUI.Slot#OUTPUT output slot} call the click handler
+     */
+    SUBMIT_ONLY
+  }
+
+  /**
+   * A {@link Semaphore} whose amount of permits can also be lowered after creation
+   */
+  private static final class ResizableSemaphore extends Semaphore {
+
+    private ResizableSemaphore(int permits) {
+      super(permits);
+    }
+
+    @Override
+    protected void reducePermits(int reduction) {
+      super.reducePermits(reduction);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package net.wesjd.anvilgui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.inventory.PrepareAnvilEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.RegisteredListener;
+
+/**
+ * Keeps anvil plugins that do not behave away from the {@link PrepareAnvilEvent}s of anvil GUIs.
+ * Only installed by the copy of the library leading the {@link SharedRuntime}, so the listeners are
+ * wrapped once no matter how many plugins shade the library.
+ */
+final class AnvilLockout {
+
+  /*
+  EcoEnchants handles the Anvil override in the most stupidly possible way. It registers it's EventHandler
+  with the priority HIGHEST so no other plugin can override it's behaviour, for lets say input purposes,
+  it additionally modifies the anvil in the next server tick in a scheduled task, because really fuck other plugins
+  trying to do anything properly inside the event, so we must prevent it receiving the event at all when the event
+  has already been handled by AnvilGUI.
+
+  UberEnchants is a bit more behaving, because it only modifies the state inside the event, but just discards the
+  description of the MONITOR priority entirely, so just prevent that plugin from receiving events as well
+   */
+  private static final Set<String> STUPID_ANVIL_CLASSES = Set.of(
+      "com.willfp.ecoenchants.mechanics.AnvilSupport",
+      "me.sciguymjm.uberenchant.utils.enchanting.AnvilEvents");
+  // ThreadLocal for Folia interop. Holds the last event handled by AnvilGUI on this thread, event
+  // dispatch is synchronous so the stupid listeners are called before it can be replaced
+  private static final ThreadLocal<Event[]> STUPID_ANVIL_LOCKOUT =
+      ThreadLocal.withInitial(() -> new Event[1]);
+
+  /** The listeners replaced by {@link #install()} and their wrappers, for {@link #uninstall()} */
+  private final List<RegisteredListener[]> wrapped = new ArrayList<>();
+
+  /**
+   * Wraps the listeners of the stupid anvil plugins, so they skip events handled by anvil GUIs
+   */
+  synchronized void install() {
+    if (!wrapped.isEmpty()) {
+      return;
+    }
+    HandlerList handlerList = PrepareAnvilEvent.getHandlerList();
+    for (RegisteredListener registeredListener : handlerList.getRegisteredListeners()) {
+      if (STUPID_ANVIL_CLASSES.contains(
+          registeredListener.getListener().getClass().getName())) {
+        handlerList.unregister(registeredListener);
+        EventExecutor eventExecutor = registeredListener.getExecutor();
+        final RegisteredListener wrapper = new RegisteredListener(
+            registeredListener.getListener(),
+            (listener, event) -> {
+              if (STUPID_ANVIL_LOCKOUT.get()[0] != event) {
+                eventExecutor.execute(listener, event);
+              }
+            },
+            registeredListener.getPriority(),
+            registeredListener.getPlugin(),
+            registeredListener.isIgnoringCancelled());
+        handlerList.register(wrapper);
+        wrapped.add(new RegisteredListener[] {registeredListener, wrapper});
+      }
+    }
+  }
+
+  /**
+   * Restores the original listeners, so the next leading copy of the library wraps them instead of
+   * these wrappers. Listeners of plugins disabled meanwhile are not registered again.
+   */
+  synchronized void uninstall() {
+    final HandlerList handlerList = PrepareAnvilEvent.getHandlerList();
+    for (RegisteredListener[] listeners : wrapped) {
+      handlerList.unregister(listeners[1]);
+      if (listeners[0].getPlugin().isEnabled()) {
+        handlerList.register(listeners[0]);
+      }
+    }
+    wrapped.clear();
+  }
+
+  /**
+   * Marks the event as handled by an anvil GUI, the stupid listeners called after this on the same
+   * thread skip it
+   *
+   * @param event The handled event
+   */
+  static void markHandled(Event event) {
+    STUPID_ANVIL_LOCKOUT.get()[0] = event;
+  }
+
+  /**
+   * Forgets the last handled event if it belongs to the inventory, so it is not kept alive
+   *
+   * @param inventory The inventory of a closed anvil GUI
+   */
+  static void release(Inventory inventory) {
+    final Event[] lockout = STUPID_ANVIL_LOCKOUT.get();
+    if (lockout[0] instanceof PrepareAnvilEvent event && event.getInventory().equals(inventory)) {
+      lockout[0] = null;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package net.wesjd.anvilgui;
+
+/**
+ * The side of an anvil session facing the outside world. The {@link AnvilSessionCore} decides what
+ * happens, the port carries it out, either through the Bukkit API or in memory.
+ * <p>
+ * All methods are called on the thread owning the player, except {@link #runNextTick(Runnable)}.
+ *
+ * @param <S> The type of the state snapshots handed to the click handler
+ * @param <A> The type of the actions returned by the click handler
+ */
+interface AnvilPort<S, A> {
+
+  /**
+   * Shows the anvil with its initial contents to the player
+   */
+  void show();
+
+  /**
+   * Returns the current rename text
+   *
+   * @return The text, empty if there is none
+   */
+  String text();
+
+  /**
+   * Removes the contents of the anvil, so nothing can be taken or dropped once it is gone
+   */
+  void clear();
+
+  /**
+   * Captures the current state of the anvil
+   *
+   * @return The snapshot
+   */
+  S snapshot();
+
+  /**
+   * Applies an action returned by the click handler
+   *
+   * @param action The action
+   */
+  void apply(A action);
+
+  /**
+   * Runs the task in the next tick on the thread owning the player. May be called from any thread.
+   *
+   * @param task The task
+   */
+  void runNextTick(Runnable task);
+
+  /**
+   * Reports an exception of the click handler or one of its actions
+   *
+   * @param exception The exception
+   */
+  void error(Throwable exception);
+
+  /**
+   * Checks whether anyone observes the session, so the observation callbacks can be skipped
+   *
+   * @return true if the observation callbacks should be called
+   */
+  boolean observed();
+
+  /**
+   * The anvil has been shown to the player
+   */
+  void opened();
+
+  /**
+   * The player changed the rename text
+   *
+   * @param text The new text
+   */
+  void textChanged(String text);
+
+  /**
+   * The player clicked one of the anvil slots
+   *
+   * @param slot  The raw slot number
+   * @param state The state at the time of the click
+   */
+  void clicked(int slot, S state);
+
+  /**
+   * An action returned by the click handler has been applied
+   *
+   * @param action The action
+   */
+  void applied(A action);
+
+  /**
+   * The anvil has been closed
+   *
+   * @param state The state right before closing
+   */
+  void closed(S state);
+
+  /**
+   * The session is over and the anvil is not going to be shown again. Called once, after
+   * {@link #closed(Object)} if the anvil was open at that point.
+   */
+  void terminated();
+}
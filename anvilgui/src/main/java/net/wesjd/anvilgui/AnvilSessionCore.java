@@ -0,0 +1,367 @@
+package net.wesjd.anvilgui;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The logic of an anvil session: which slots may be modified, when the click handler is called,
+ * what happens to its actions and the opening and closing of the anvil. It does not use the Bukkit
+ * API itself, everything visible to the outside world goes through its {@link AnvilPort}.
+ *
+ * @param <S> The type of the state snapshots handed to the click handler
+ * @param <A> The type of the actions returned by the click handler
+ */
+final class AnvilSessionCore<S, A> {
+
+  private final Policy<S, A> policy;
+  private final AnvilPort<S, A> port;
+
+  /**
+   * Represents the state of the anvil being open
+   */
+  private boolean open;
+  /**
+   * Whether the session is over, the anvil is not shown again once set
+   */
+  private boolean terminated;
+  /**
+   * Boolean storing the running status of the latest click handler to prevent double execution.
+   * All accesses to this boolean will be from the thread owning the player, except for the rare
+   * event that the plugin is disabled and the next tick cannot be scheduled anymore
+   */
+  private boolean clickHandlerRunning;
+  /**
+   * The last reported rename text, used to only report actual changes
+   */
+  private String lastText;
+  /**
+   * The latest rename text held back by the debounce, reported once the debounce has passed
+   */
+  private String pendingText;
+  /**
+   * Whether reporting the pending rename text is scheduled, so there is at most one task for it
+   */
+  private boolean pendingTextScheduled;
+  /**
+   * The time the rename text has last been reported at, in {@link System#nanoTime()}
+   */
+  private long lastTextNanos;
+
+  AnvilSessionCore(Policy<S, A> policy, AnvilPort<S, A> port) {
+    this.policy = policy;
+    this.port = port;
+  }
+
+  /**
+   * Shows the anvil to the player, unless the session is over
+   */
+  void open() {
+    if (open || terminated) {
+      return;
+    }
+    port.show();
+    open = true;
+    if (port.observed()) {
+      port.opened();
+    }
+    // Filling the anvil while showing it already changes the text, which is only reported once the
+    // anvil counts as open, so the opening comes first
+    textChanged(port.text());
+  }
+
+  /**
+   * Returns whether the anvil is currently shown to the player
+   *
+   * @return true if the anvil is open
+   */
+  boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Closes the anvil if it is open
+   *
+   * @param terminal Whether the session is over, or the anvil is going to be shown again
+   */
+  void close(boolean terminal) {
+    if (terminated) {
+      return;
+    }
+    terminated = terminal;
+
+    // Between closing and showing the anvil again there is nothing to close, but a terminal close
+    // still ends the session
+    if (open) {
+      open = false;
+      pendingText = null;
+
+      final S state = port.snapshot();
+      port.clear(); // Prevent item drops
+
+      if (policy.closeListener != null) {
+        policy.closeListener.accept(state);
+      }
+      port.closed(state);
+    }
+    if (terminal) {
+      port.terminated();
+    }
+  }
+
+  /**
+   * The player closed the anvil, shows it again in the next tick if closing is prevented
+   */
+  void closedByPlayer() {
+    if (!open) {
+      return;
+    }
+    close(!policy.preventClose);
+    if (policy.preventClose) {
+      port.runNextTick(this::open);
+    }
+  }
+
+  /**
+   * The anvil has been updated, possibly because the player typed. Ignored until the anvil is
+   * open. Changes are reported less often or not at all depending on the
+   * {@link AnvilGUIRuntime.DegradationLevel}. A change held back by the debounce is reported once
+   * the debounce has passed, so the last text typed is not lost.
+   *
+   * @param text The current rename text
+   */
+  void textChanged(String text) {
+    pendingText = null;
+    // Without observers there is nothing to report, nor to debounce
+    if (!open || !port.observed() || text.equals(lastText)) {
+      return;
+    }
+    final AnvilGUIRuntime.DegradationLevel level = policy.health.level();
+    if (level.compareTo(AnvilGUIRuntime.DegradationLevel.NO_PREVIEW) >= 0) {
+      return;
+    }
+    if (level == AnvilGUIRuntime.DegradationLevel.DEBOUNCE
+        || level == AnvilGUIRuntime.DegradationLevel.SKIP_RESYNC) {
+      final long now = System.nanoTime();
+      if (now - lastTextNanos < policy.health.debounceNanos()) {
+        pendingText = text;
+        if (!pendingTextScheduled) {
+          pendingTextScheduled = true;
+          port.runNextTick(this::reportPendingText);
+        }
+        return;
+      }
+      lastTextNanos = now;
+    }
+    lastText = text;
+    port.textChanged(text);
+  }
+
+  /**
+   * Reports the rename text held back by the debounce, or checks again in the next tick while the
+   * debounce has not passed yet
+   */
+  private void reportPendingText() {
+    pendingTextScheduled = false;
+    if (pendingText != null) {
+      textChanged(pendingText);
+    }
+  }
+
+  /**
+   * Checks whether the player may drag items across the slots
+   *
+   * @param rawSlots The raw slot numbers the drag covers
+   * @return true if none of the anvil slots in the drag is locked
+   */
+  boolean allowsDrag(Collection<Integer> rawSlots) {
+    for (int slot : AnvilGUI.Slot.values) {
+      if (rawSlots.contains(slot) && !policy.isInteractable(slot)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether the player may modify the slot
+   *
+   * @param slot The raw slot number
+   * @return true if the slot is interactable
+   */
+  boolean isInteractable(int slot) {
+    return policy.isInteractable(slot);
+  }
+
+  /**
+   * The player clicked one of the anvil slots. Calls the click handler unless the previous one is
+   * still running and applies the returned actions in the next tick. Should the admission reject the
+   * click handler, the busy actions are applied instead.
+   * <p>
+   * If the click handler returns an already completed future, the actions up to the first one that
+   * is not {@link Policy#safeDuringClick() safe during a click} are applied right away, the others
+   * in the next tick. Must therefore be called while the click is being processed.
+   * <p>
+   * At {@link AnvilGUIRuntime.DegradationLevel#SUBMIT_ONLY} only clicks on the output slot are
+   * handled.
+   *
+   * @param slot The raw slot number
+   * @return A future completing once the actions have been applied, or null if the click handler
+   *     has not been called
+   */
+  CompletableFuture<Void> click(int slot) {
+    if (slot != AnvilGUI.Slot.OUTPUT
+        && policy.health.level() == AnvilGUIRuntime.DegradationLevel.SUBMIT_ONLY) {
+      return null;
+    }
+    // A click handler is running, don't launch another one
+    final boolean dispatch = !clickHandlerRunning || policy.concurrentClickHandlerExecution;
+    final boolean observed = port.observed();
+    if (!dispatch && !observed) {
+      return null;
+    }
+
+    final S state = port.snapshot();
+    if (observed) {
+      port.clicked(slot, state);
+    }
+    if (!dispatch) {
+      return null;
+    }
+
+    final CompletableFuture<List<A>> actionsFuture;
+    if (policy.admission.tryAcquire()) {
+      // Until the release is attached to the future, any failure has to give the permit back
+      try {
+        actionsFuture = Objects.requireNonNull(
+            policy.clickHandler.apply(slot, state), "The click handler returned null");
+        actionsFuture.whenComplete((actions, exception) -> policy.admission.release());
+      } catch (RuntimeException | Error e) {
+        policy.admission.release();
+        throw e;
+      }
+    } else if (policy.busyActions.isEmpty()) {
+      return null;
+    } else {
+      // Too many click handlers in flight, respond without calling this one
+      actionsFuture = CompletableFuture.completedFuture(policy.busyActions);
+    }
+
+    clickHandlerRunning = true;
+    if (actionsFuture.isDone() && !actionsFuture.isCompletedExceptionally()) {
+      // The actions are known while the click is still being processed, apply the ones that are
+      // safe to apply during it right away and only defer the rest to the next tick
+      final List<A> actions = actionsFuture.join();
+      final int applied;
+      try {
+        applied = applyWhileSafe(actions);
+      } catch (Throwable t) {
+        port.error(t);
+        clickHandlerRunning = false;
+        return CompletableFuture.completedFuture(null);
+      }
+      if (applied == actions.size()) {
+        clickHandlerRunning = false;
+        return CompletableFuture.completedFuture(null);
+      }
+      return applyNextTick(
+          CompletableFuture.completedFuture(actions.subList(applied, actions.size())));
+    }
+    return applyNextTick(actionsFuture);
+  }
+
+  /**
+   * Applies the actions in order, up to the first one that is not safe to apply during a click
+   *
+   * @param actions The actions returned by the click handler
+   * @return The amount of applied actions
+   */
+  private int applyWhileSafe(List<A> actions) {
+    int applied = 0;
+    for (final A action : actions) {
+      if (!policy.safeDuringClick.test(action)) {
+        break;
+      }
+      port.apply(action);
+      if (port.observed()) {
+        port.applied(action);
+      }
+      applied++;
+    }
+    return applied;
+  }
+
+  /**
+   * Applies the actions in the next tick once the future completes, then allows the next click
+   * handler to run
+   *
+   * @param actionsFuture The future of the actions
+   * @return A future completing once the actions have been applied
+   */
+  private CompletableFuture<Void> applyNextTick(CompletableFuture<List<A>> actionsFuture) {
+    // If the plugin is disabled and the Executor throws an exception, the exception will be
+    // passed to the .handle method
+    return actionsFuture
+        .thenAcceptAsync(
+            actions -> {
+              for (final A action : actions) {
+                port.apply(action);
+                if (port.observed()) {
+                  port.applied(action);
+                }
+              }
+            },
+            port::runNextTick)
+        .handle((results, exception) -> {
+          if (exception != null) {
+            port.error(exception);
+          }
+          // Whether an exception occurred or not, set running to false
+          clickHandlerRunning = false;
+          return null;
+        });
+  }
+
+  /**
+   * The part of a session that does not change while it is open, shared by all sessions opened with
+   * the same settings
+   *
+   * @param interactableSlots               A bit set of the slot numbers the player may modify
+   * @param preventClose                    Whether closing the anvil is prevented
+   * @param concurrentClickHandlerExecution Whether the click handler may run concurrently
+   * @param clickHandler                    Called when the player clicks a slot
+   * @param closeListener                   Called when the anvil is closed, may be null
+   * @param admission                       Bounds the click handlers in flight
+   * @param busyActions                     Applied instead of calling a rejected click handler
+   * @param safeDuringClick                 Decides whether an action may be applied while the click
+   *                                        is still being processed, instead of in the next tick
+   * @param health                          Decides which live features are cut back
+   * @param <S>                             The type of the state snapshots
+   * @param <A>                             The type of the actions
+   */
+  record Policy<S, A>(
+      int interactableSlots,
+      boolean preventClose,
+      boolean concurrentClickHandlerExecution,
+      BiFunction<Integer, S, CompletableFuture<List<A>>> clickHandler,
+      Consumer<S> closeListener,
+      ClickAdmission admission,
+      List<A> busyActions,
+      Predicate<A> safeDuringClick,
+      TickHealth health) {
+
+    /**
+     * Checks whether the player may modify the slot
+     *
+     * @param slot The raw slot number
+     * @return true if the slot is interactable
+     */
+    boolean isInteractable(int slot) {
+      return slot >= 0 && slot < Integer.SIZE && (interactableSlots & (1 << slot)) != 0;
+    }
+  }
+}
@@ -0,0 +1,402 @@
+package net.wesjd.anvilgui;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+
+/**
+ * An append-only file of length-prefixed, checksummed records that are written by a single
+ * background thread.
+ * <p>
+ * Records appended while the writer is busy are written together and made durable with a single
+ * {@link FileChannel#force(boolean) fsync} (group commit), so appending never blocks the caller and
+ * never costs one write per record. A torn record at the end of the file, left behind by a crash, is
+ * truncated when the log is opened again.
+ * <p>
+ * Once writing fails the log stops writing: the file is cut back to the last durable record, so
+ * reopening it keeps everything reported as durable, and all records appended afterwards are
+ * dropped with their flushes failing.
+ *
+ * @param <T> The type of the records
+ */
+final class AppendLog<T> implements AutoCloseable {
+
+  /** Written at the start of every log file, "AGUI" */
+  private static final int MAGIC = 0x41475549;
+  /** Size of the file header, magic and format version */
+  private static final int HEADER_SIZE = 8;
+  /** Size of the frame header, payload length and CRC32 */
+  private static final int FRAME_HEADER_SIZE = 8;
+  /** Queued to stop the writer thread after everything before it has been committed */
+  private static final Object CLOSE = new Object();
+
+  /**
+   * Writes a record into its binary form
+   *
+   * @param <T> The type of the records
+   */
+  @FunctionalInterface
+  interface Encoder<T> {
+    void encode(T value, DataOutput out) throws IOException;
+  }
+
+  /**
+   * Reads a record from its binary form
+   *
+   * @param <T> The type of the records
+   */
+  @FunctionalInterface
+  interface Decoder<T> {
+    T decode(DataInput in) throws IOException;
+  }
+
+  private final FileChannel channel;
+  private final Encoder<T> encoder;
+  private final int maxBatchSize;
+  private final Logger logger;
+  private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+  /** Flush requests paired with the sequence number they wait for */
+  private final Queue<PendingFlush> pendingFlushes = new ConcurrentLinkedQueue<>();
+  private final Thread writer;
+
+  /** Sequence number of the last appended record */
+  private long appended;
+  /** Sequence number of the last record that has been made durable */
+  private volatile long committed;
+  /** The length of the file up to the last durable record, only accessed by the writer */
+  private long durableLength;
+  /** The reason writing failed, null while the log is intact */
+  private volatile IOException failure;
+
+  private volatile boolean closed;
+
+  /**
+   * Opens the log, creating it if necessary
+   *
+   * @param file          The file to append to
+   * @param formatVersion The version of the record encoding, stored in the file header
+   * @param encoder       The {@link Encoder} of the records
+   * @param maxBatchSize  The maximum amount of records committed together
+   * @param name          The name of the writer thread
+   * @param logger        The logger to report write failures to
+   * @throws IOException if the file could not be opened or has a foreign header
+   */
+  AppendLog(
+      Path file, int formatVersion, Encoder<T> encoder, int maxBatchSize, String name, Logger logger)
+      throws IOException {
+    this.encoder = encoder;
+    this.maxBatchSize = maxBatchSize;
+    this.logger = logger;
+
+    final long validLength =
+        Files.exists(file) && Files.size(file) > 0 ? scan(file, formatVersion, frame -> {}) : 0;
+
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    if (validLength == 0) {
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(formatVersion).flip();
+      channel.truncate(0);
+      while (header.hasRemaining()) {
+        channel.write(header, header.position());
+      }
+      channel.position(HEADER_SIZE);
+      channel.force(true);
+      durableLength = HEADER_SIZE;
+    } else {
+      channel.truncate(validLength);
+      channel.position(validLength);
+      durableLength = validLength;
+    }
+
+    writer = Thread.ofPlatform().name(name).daemon().start(this::writeLoop);
+  }
+
+  /**
+   * Queues the record to be written. Never blocks. Dropped if writing has failed before.
+   *
+   * @param value The record
+   * @throws IllegalStateException if the log has been closed
+   */
+  synchronized void append(T value) {
+    if (closed) {
+      throw new IllegalStateException("The log has already been closed");
+    }
+    if (failure != null) {
+      return;
+    }
+    appended++;
+    queue.add(value);
+  }
+
+  /**
+   * Creates a future that completes once every record appended so far is durable
+   *
+   * @return The future, completed exceptionally if writing failed now or before
+   */
+  synchronized CompletableFuture<Void> flush() {
+    final IOException failure = this.failure;
+    if (failure != null) {
+      return CompletableFuture.failedFuture(failure);
+    }
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    if (committed >= appended) {
+      future.complete(null);
+    } else {
+      pendingFlushes.add(new PendingFlush(appended, future));
+      // The writer may have committed or failed in the meantime
+      completeFlushes();
+    }
+    return future;
+  }
+
+  /**
+   * Commits all queued records and stops the writer thread
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      queue.add(CLOSE);
+    }
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void writeLoop() {
+    final List<Object> batch = new ArrayList<>(maxBatchSize);
+    final FrameBuffer payload = new FrameBuffer();
+    final DataOutputStream payloadOut = new DataOutputStream(payload);
+    final FrameBuffer frames = new FrameBuffer();
+    final DataOutputStream framesOut = new DataOutputStream(frames);
+    final CRC32 crc = new CRC32();
+
+    boolean running = true;
+    while (running) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        // Only close() stops the writer
+        continue;
+      }
+      queue.drainTo(batch, maxBatchSize - 1);
+
+      frames.reset();
+      int records = 0;
+      for (Object entry : batch) {
+        if (entry == CLOSE) {
+          running = false;
+          continue;
+        }
+        records++;
+        payload.reset();
+        try {
+          encoder.encode((T) entry, payloadOut);
+          crc.reset();
+          crc.update(payload.array(), 0, payload.size());
+          framesOut.writeInt(payload.size());
+          framesOut.writeInt((int) crc.getValue());
+          payload.writeTo(framesOut);
+        } catch (IOException | RuntimeException e) {
+          logger.error("Could not encode a record for the log, it is skipped", e);
+        }
+      }
+      batch.clear();
+
+      if (failure == null) {
+        try {
+          final ByteBuffer buffer = ByteBuffer.wrap(frames.array(), 0, frames.size());
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+          channel.force(false);
+          durableLength = channel.position();
+        } catch (IOException e) {
+          fail(e, records);
+        }
+      }
+      committed += records;
+      completeFlushes();
+    }
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+      logger.error("Could not close the log", e);
+    }
+  }
+
+  /**
+   * Stops writing after a failed write. The file is cut back to the last durable record, so a torn
+   * frame of the failed batch is not left behind.
+   *
+   * @param e       The failure
+   * @param records The amount of records in the failed batch
+   */
+  private void fail(IOException e, int records) {
+    try {
+      channel.truncate(durableLength);
+      channel.position(durableLength);
+    } catch (IOException truncateFailure) {
+      e.addSuppressed(truncateFailure);
+    }
+    failure = e;
+    logger.error("Could not write " + records + " records to the log, it stops writing", e);
+  }
+
+  private void completeFlushes() {
+    final IOException failure = this.failure;
+    PendingFlush pending;
+    while ((pending = pendingFlushes.peek()) != null
+        && (failure != null || pending.sequence() <= committed)) {
+      if (pendingFlushes.remove(pending)) {
+        if (failure != null) {
+          pending.future().completeExceptionally(failure);
+        } else {
+          pending.future().complete(null);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads all intact records of the log in the order they have been appended. Reading stops at the
+   * first torn or corrupted record.
+   *
+   * @param file          The log file
+   * @param formatVersion The expected version of the record encoding
+   * @param decoder       The {@link Decoder} of the records
+   * @param consumer      Receives every record
+   * @param <T>           The type of the records
+   * @throws IOException if the file could not be read or has a foreign header
+   */
+  static <T> void read(
+      Path file, int formatVersion, Decoder<T> decoder, Consumer<? super T> consumer)
+      throws IOException {
+    try {
+      scan(file, formatVersion, frame -> {
+        try {
+          consumer.accept(decoder.decode(new DataInputStream(new ByteArrayInputStream(frame))));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Walks over the intact frames of the log
+   *
+   * @return The length of the file up to and including the last intact frame
+   */
+  private static long scan(Path file, int formatVersion, Consumer<byte[]> frameConsumer)
+      throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      final int magic, version;
+      try {
+        magic = in.readInt();
+        version = in.readInt();
+      } catch (EOFException e) {
+        return 0;
+      }
+      if (magic != MAGIC) {
+        throw new IOException(file + " is not an AnvilGUI log");
+      }
+      if (version != formatVersion) {
+        throw new IOException(
+            file + " has format version " + version + ", expected " + formatVersion);
+      }
+
+      long validLength = HEADER_SIZE;
+      final CRC32 crc = new CRC32();
+      while (true) {
+        final int length, checksum;
+        final byte[] frame;
+        try {
+          length = in.readInt();
+          checksum = in.readInt();
+          if (length < 0) {
+            return validLength;
+          }
+          frame = in.readNBytes(length);
+        } catch (EOFException e) {
+          return validLength;
+        }
+        if (frame.length != length) {
+          return validLength;
+        }
+        crc.reset();
+        crc.update(frame);
+        if ((int) crc.getValue() != checksum) {
+          return validLength;
+        }
+        frameConsumer.accept(frame);
+        validLength += FRAME_HEADER_SIZE + length;
+      }
+    }
+  }
+
+  /**
+   * Writes a variable length int, using one byte for values below 128
+   */
+  static void writeVarInt(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /**
+   * Reads a variable length int written by {@link #writeVarInt(DataOutput, int)}
+   */
+  static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final byte b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("VarInt is too big");
+  }
+
+  private record PendingFlush(long sequence, CompletableFuture<Void> future) {}
+
+  /**
+   * A {@link ByteArrayOutputStream} that exposes its buffer to avoid copying it
+   */
+  private static final class FrameBuffer extends ByteArrayOutputStream {
+
+    private FrameBuffer() {
+      super(512);
+    }
+
+    private byte[] array() {
+      return buf;
+    }
+  }
+}
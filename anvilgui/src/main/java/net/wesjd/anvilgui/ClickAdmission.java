@@ -0,0 +1,84 @@
+package net.wesjd.anvilgui;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the amount of click handlers in flight, meaning called but not yet completed. Admission
+ * never waits, a click over the limit is rejected right away so no backlog can build up.
+ * <p>
+ * Admissions may be chained, a permit is only granted if the parent grants one as well. This way a
+ * plugin's limit applies in addition to the server-wide one.
+ */
+final class ClickAdmission {
+
+  /** An admission that grants every request, for sessions that are not bound to a plugin */
+  static final ClickAdmission UNLIMITED = new ClickAdmission(null, Integer.MAX_VALUE);
+
+  private final ClickAdmission parent;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder rejected = new LongAdder();
+  private volatile int limit;
+
+  ClickAdmission(ClickAdmission parent, int limit) {
+    this.parent = parent;
+    this.limit = limit;
+  }
+
+  /**
+   * Tries to admit a click handler, which must be followed by a {@link #release()} once it completes
+   *
+   * @return true if the click handler may be called
+   */
+  boolean tryAcquire() {
+    int current;
+    do {
+      current = inFlight.get();
+      if (current >= limit) {
+        rejected.increment();
+        if (parent != null) {
+          parent.rejected.increment();
+        }
+        return false;
+      }
+    } while (!inFlight.compareAndSet(current, current + 1));
+
+    if (parent != null && !parent.tryAcquire()) {
+      inFlight.decrementAndGet();
+      rejected.increment();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the permit of a completed click handler
+   */
+  void release() {
+    inFlight.decrementAndGet();
+    if (parent != null) {
+      parent.release();
+    }
+  }
+
+  int limit() {
+    return limit;
+  }
+
+  /**
+   * Changes the limit, click handlers in flight above a lowered limit are not affected
+   *
+   * @param limit The new limit
+   */
+  void limit(int limit) {
+    this.limit = limit;
+  }
+
+  int inFlight() {
+    return inFlight.get();
+  }
+
+  long rejected() {
+    return rejected.sum();
+  }
+}
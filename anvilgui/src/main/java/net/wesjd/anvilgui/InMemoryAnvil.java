@@ -0,0 +1,347 @@
+package net.wesjd.anvilgui;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An anvil that only exists in memory, running the same session logic as {@link AnvilGUI} without
+ * a server. Slot policy, click handler gating, action application and closing behave exactly like
+ * in an anvil GUI opened with the same parameters, so benchmarks and tests can drive millions of
+ * synthetic events per second through it on a plain JVM.
+ * <p>
+ * Like an anvil GUI it is not thread-safe, all calls must come from the same thread as the tasks
+ * run by its scheduler.
+ */
+public final class InMemoryAnvil {
+
+  private final AnvilSessionCore<State, Action> core;
+  private final Executor scheduler;
+  private final String initialText;
+  /** The degradation level of this anvil, not tied to any server */
+  private final TickHealth health = new TickHealth();
+
+  private String text = "";
+  private long appliedActions;
+  private long failures;
+
+  private InMemoryAnvil(
+      Executor scheduler, SessionReplay.OpenParameters parameters, ClickHandler clickHandler) {
+    this.scheduler = scheduler;
+    this.initialText = parameters.text();
+    this.core = new AnvilSessionCore<>(
+        new AnvilSessionCore.Policy<>(
+            parameters.interactableSlots(),
+            parameters.preventClose(),
+            parameters.concurrentClickHandlerExecution(),
+            clickHandler,
+            null,
+            ClickAdmission.UNLIMITED,
+            List.of(),
+            Action::isSafeDuringClick,
+            health),
+        new Port());
+  }
+
+  /**
+   * Opens an anvil in memory
+   *
+   * @param scheduler    Runs the tasks an anvil GUI would run in the next tick, for example
+   *                     {@code Runnable::run} or a queue drained by a simulated tick
+   * @param parameters   The parameters to open the anvil with, the title is ignored
+   * @param clickHandler Called when a slot is clicked, like {@link AnvilGUI.Builder#onClickAsync}
+   * @return The opened {@link InMemoryAnvil}
+   * @throws NullPointerException if any argument is null
+   */
+  public static @NotNull InMemoryAnvil open(
+      @NotNull Executor scheduler,
+      @NotNull SessionReplay.OpenParameters parameters,
+      @NotNull ClickHandler clickHandler) {
+    final InMemoryAnvil anvil = new InMemoryAnvil(
+        Objects.requireNonNull(scheduler, "scheduler"),
+        Objects.requireNonNull(parameters, "parameters"),
+        Objects.requireNonNull(clickHandler, "clickHandler"));
+    anvil.core.open();
+    return anvil;
+  }
+
+  /**
+   * Creates a {@link SessionReplay.Target} replaying recorded sessions into anvils in memory. All
+   * anvils share one lock, so click handlers completing on other threads apply their actions
+   * safely.
+   *
+   * @param clickHandler Called when a slot is clicked
+   * @return The {@link SessionReplay.Target}
+   * @throws NullPointerException if the clickHandler is null
+   */
+  public static @NotNull SessionReplay.Target replayTarget(@NotNull ClickHandler clickHandler) {
+    Objects.requireNonNull(clickHandler, "clickHandler");
+    final Object lock = new Object();
+    final Executor scheduler = task -> {
+      synchronized (lock) {
+        task.run();
+      }
+    };
+    return (player, parameters) -> {
+      final InMemoryAnvil anvil;
+      synchronized (lock) {
+        anvil = open(scheduler, parameters, clickHandler);
+      }
+      return new SessionReplay.TargetSession() {
+        @Override
+        public void text(@NotNull String text) {
+          synchronized (lock) {
+            anvil.type(text);
+          }
+        }
+
+        @Override
+        public @Nullable CompletableFuture<?> click(int slot) {
+          synchronized (lock) {
+            return anvil.click(slot);
+          }
+        }
+
+        @Override
+        public void close() {
+          synchronized (lock) {
+            anvil.closeByPlayer();
+          }
+        }
+      };
+    };
+  }
+
+  /**
+   * The player typed into the rename field
+   *
+   * @param text The new rename text
+   * @throws NullPointerException if the text is null
+   */
+  public void type(@NotNull String text) {
+    this.text = Objects.requireNonNull(text, "text");
+    core.textChanged(text);
+  }
+
+  /**
+   * The player clicked a slot
+   *
+   * @param slot The slot number corresponding to {@link AnvilGUI.Slot}
+   * @return A future completing once the returned actions have been applied, or null if the click
+   *     handler has not been called because the previous one is still running
+   */
+  public @Nullable CompletableFuture<Void> click(int slot) {
+    return core.click(slot);
+  }
+
+  /**
+   * Checks whether the player may take items out of or put items into the slot
+   *
+   * @param slot The slot number corresponding to {@link AnvilGUI.Slot}
+   * @return true if the slot is interactable
+   */
+  public boolean isInteractable(int slot) {
+    return core.isInteractable(slot);
+  }
+
+  /**
+   * The player closed the anvil, it is opened again if closing is prevented
+   */
+  public void closeByPlayer() {
+    core.closedByPlayer();
+  }
+
+  /**
+   * Closes the anvil for good
+   */
+  public void close() {
+    core.close(true);
+  }
+
+  /**
+   * Returns whether the anvil is currently open
+   *
+   * @return true if the anvil is open
+   */
+  public boolean isOpen() {
+    return core.isOpen();
+  }
+
+  /**
+   * Simulates the server being behind, the anvil cuts back on live features like an anvil GUI
+   * would
+   *
+   * @param level The {@link AnvilGUIRuntime.DegradationLevel} to behave like
+   * @throws NullPointerException if the level is null
+   */
+  public void degrade(@NotNull AnvilGUIRuntime.DegradationLevel level) {
+    health.level(Objects.requireNonNull(level, "level"));
+  }
+
+  /**
+   * Returns the current rename text
+   *
+   * @return The text
+   */
+  public @NotNull String text() {
+    return text;
+  }
+
+  /**
+   * Returns the amount of actions applied so far
+   *
+   * @return The amount of applied actions
+   */
+  public long appliedActions() {
+    return appliedActions;
+  }
+
+  /**
+   * Returns the amount of click handlers that completed exceptionally or whose actions threw
+   *
+   * @return The amount of failures
+   */
+  public long failures() {
+    return failures;
+  }
+
+  /**
+   * The state of an {@link InMemoryAnvil} handed to its click handler
+   *
+   * @param text The rename text at the time of the click
+   */
+  public record State(@NotNull String text) {}
+
+  /**
+   * An action to run in response to a click, the counterpart of {@link AnvilGUI.ResponseAction}
+   */
+  @FunctionalInterface
+  public interface Action {
+
+    /**
+     * Applies the action
+     *
+     * @param anvil The anvil the click happened in
+     */
+    void apply(@NotNull InMemoryAnvil anvil);
+
+    /**
+     * Whether the action may be applied while the click is still being processed, see
+     * {@link AnvilGUI.ResponseAction#isSafeDuringClick()}
+     *
+     * @return true if the action may be applied right away
+     */
+    default boolean isSafeDuringClick() {
+      return false;
+    }
+
+    /**
+     * Replace the input text box value with the provided text value
+     *
+     * @param text The text to write in the input box
+     * @return The {@link Action} to achieve the text replacement
+     * @throws NullPointerException when the text is null
+     */
+    static @NotNull Action replaceInputText(@NotNull String text) {
+      Objects.requireNonNull(text, "text");
+      return new Action() {
+        @Override
+        public void apply(@NotNull InMemoryAnvil anvil) {
+          anvil.type(text);
+        }
+
+        @Override
+        public boolean isSafeDuringClick() {
+          return true;
+        }
+      };
+    }
+
+    /**
+     * Close the anvil
+     *
+     * @return The {@link Action} to achieve closing the anvil
+     */
+    static @NotNull Action close() {
+      return InMemoryAnvil::close;
+    }
+  }
+
+  /**
+   * A handler that is called when a slot of an {@link InMemoryAnvil} is clicked, the counterpart of
+   * {@link AnvilGUI.ClickHandler}
+   */
+  @FunctionalInterface
+  public interface ClickHandler
+      extends BiFunction<
+          @NotNull Integer,
+          @NotNull State,
+          @NotNull CompletableFuture<@NotNull List<@NotNull Action>>> {}
+
+  /**
+   * Carries out the decisions of the {@link AnvilSessionCore} in memory
+   */
+  private final class Port implements AnvilPort<State, Action> {
+
+    @Override
+    public void show() {
+      text = initialText;
+    }
+
+    @Override
+    public String text() {
+      return text;
+    }
+
+    @Override
+    public void clear() {}
+
+    @Override
+    public State snapshot() {
+      return new State(text);
+    }
+
+    @Override
+    public void apply(Action action) {
+      action.apply(InMemoryAnvil.this);
+      appliedActions++;
+    }
+
+    @Override
+    public void runNextTick(Runnable task) {
+      scheduler.execute(task);
+    }
+
+    @Override
+    public void error(Throwable exception) {
+      failures++;
+    }
+
+    @Override
+    public boolean observed() {
+      return false;
+    }
+
+    @Override
+    public void opened() {}
+
+    @Override
+    public void textChanged(String text) {}
+
+    @Override
+    public void clicked(int slot, State state) {}
+
+    @Override
+    public void applied(Action action) {}
+
+    @Override
+    public void closed(State state) {}
+
+    @Override
+    public void terminated() {}
+  }
+}
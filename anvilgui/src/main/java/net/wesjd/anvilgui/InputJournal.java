@@ -0,0 +1,193 @@
+package net.wesjd.anvilgui;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A write-behind journal of the inputs submitted in {@link AnvilGUI}s.
+ * <p>
+ * Attach it with {@link AnvilGUI.Builder#journal(InputJournal)} and every click on the
+ * {@link AnvilGUI.Slot#OUTPUT output slot} is appended to a local file in a compact binary encoding.
+ * Encoding and writing happen on a background thread that commits everything queued in the meantime
+ * with a single fsync, so capturing input never blocks a tick. After a restart the submitted inputs
+ * can be read back with {@link #replay(Path, Consumer)}.
+ *
+ * @since 2.0
+ */
+public final class InputJournal implements AutoCloseable {
+
+  /** The version of the entry encoding, bumped on incompatible changes */
+  private static final int FORMAT_VERSION = 1;
+
+  /**
+   * Opens a journal, appending to the file if it already exists
+   *
+   * @param plugin The {@link Plugin} owning the journal, used for error reporting
+   * @param file   The file to append to
+   * @return The opened {@link InputJournal}
+   * @throws IOException if the file could not be opened or is not a journal
+   * @throws NullPointerException if the plugin or file is null
+   */
+  public static @NotNull InputJournal open(@NotNull Plugin plugin, @NotNull Path file)
+      throws IOException {
+    return open(plugin, file, 512);
+  }
+
+  /**
+   * Opens a journal, appending to the file if it already exists
+   *
+   * @param plugin       The {@link Plugin} owning the journal, used for error reporting
+   * @param file         The file to append to
+   * @param maxBatchSize The maximum amount of entries committed with a single fsync
+   * @return The opened {@link InputJournal}
+   * @throws IOException if the file could not be opened or is not a journal
+   * @throws NullPointerException if the plugin or file is null
+   * @throws IllegalArgumentException if the maxBatchSize is not positive
+   */
+  public static @NotNull InputJournal open(
+      @NotNull Plugin plugin, @NotNull Path file, int maxBatchSize) throws IOException {
+    Objects.requireNonNull(plugin, "plugin");
+    Objects.requireNonNull(file, "file");
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("maxBatchSize must be positive, was " + maxBatchSize);
+    }
+    return new InputJournal(new AppendLog<>(
+        file,
+        FORMAT_VERSION,
+        InputJournal::encode,
+        maxBatchSize,
+        "AnvilGUI-journal-" + plugin.getName(),
+        plugin.getSLF4JLogger()));
+  }
+
+  /**
+   * Reads all entries of a journal in the order they have been submitted. An entry that was only
+   * partially written when the server crashed ends the replay.
+   * <p>
+   * Items are deserialized with {@link ItemStack#deserializeBytes(byte[])}, so this requires a
+   * running server.
+   *
+   * @param file     The journal file
+   * @param consumer Receives every entry
+   * @throws IOException if the file could not be read or is not a journal
+   * @throws NullPointerException if the file or consumer is null
+   */
+  public static void replay(@NotNull Path file, @NotNull Consumer<@NotNull Entry> consumer)
+      throws IOException {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(consumer, "consumer");
+    AppendLog.read(file, FORMAT_VERSION, InputJournal::decode, consumer);
+  }
+
+  private final AppendLog<Submission> log;
+
+  private InputJournal(AppendLog<Submission> log) {
+    this.log = log;
+  }
+
+  /**
+   * Queues a submitted input, the snapshot is encoded on the writer thread
+   *
+   * @param slot  The clicked slot
+   * @param state The state of the anvil when it was submitted
+   */
+  void record(int slot, AnvilGUI.StateSnapshot state) {
+    log.append(new Submission(
+        System.currentTimeMillis(), state.player().getUniqueId(), slot, state));
+  }
+
+  /**
+   * Creates a future that completes once every input submitted so far is durably stored
+   *
+   * @return The {@link CompletableFuture}, completed exceptionally if writing failed
+   */
+  public @NotNull CompletableFuture<Void> flush() {
+    return log.flush();
+  }
+
+  /**
+   * Writes all queued inputs and closes the file. Inputs submitted afterwards throw an
+   * {@link IllegalStateException}, so detach the journal from the builders first.
+   */
+  @Override
+  public void close() {
+    log.close();
+  }
+
+  private static void encode(Submission submission, DataOutput out) throws IOException {
+    out.writeLong(submission.timestamp());
+    out.writeLong(submission.playerId().getMostSignificantBits());
+    out.writeLong(submission.playerId().getLeastSignificantBits());
+    out.writeByte(submission.slot());
+    out.writeUTF(submission.state().text());
+    writeItem(out, submission.state().leftItem());
+    writeItem(out, submission.state().rightItem());
+    writeItem(out, submission.state().outputItem());
+  }
+
+  private static Entry decode(DataInput in) throws IOException {
+    return new Entry(
+        in.readLong(),
+        new UUID(in.readLong(), in.readLong()),
+        in.readByte(),
+        in.readUTF(),
+        readItem(in),
+        readItem(in),
+        readItem(in));
+  }
+
+  private static void writeItem(DataOutput out, ItemStack item) throws IOException {
+    if (item.isEmpty()) {
+      AppendLog.writeVarInt(out, 0);
+      return;
+    }
+    final byte[] bytes = item.serializeAsBytes();
+    AppendLog.writeVarInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static ItemStack readItem(DataInput in) throws IOException {
+    final int length = AppendLog.readVarInt(in);
+    if (length == 0) {
+      return ItemStack.empty();
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return ItemStack.deserializeBytes(bytes);
+  }
+
+  /**
+   * A queued input, holding on to the snapshot until the writer thread encodes it
+   */
+  private record Submission(
+      long timestamp, UUID playerId, int slot, AnvilGUI.StateSnapshot state) {}
+
+  /**
+   * An input read back from the journal
+   *
+   * @param timestamp  The time of the submission in milliseconds since the epoch
+   * @param playerId   The {@link UUID} of the player that submitted the input
+   * @param slot       The slot that has been clicked, corresponding to {@link AnvilGUI.Slot}
+   * @param text       The text that had been entered into the anvil
+   * @param leftItem   The left item in the combine slot of the anvilGUI
+   * @param rightItem  The right item in the combine slot of the anvilGUI
+   * @param outputItem The item in the output slot of the anvilGUI
+   */
+  public record Entry(
+      long timestamp,
+      @NotNull UUID playerId,
+      int slot,
+      @NotNull String text,
+      @NotNull ItemStack leftItem,
+      @NotNull ItemStack rightItem,
+      @NotNull ItemStack outputItem) {}
+}
@@ -0,0 +1,66 @@
+package net.wesjd.anvilgui;
+
+/**
+ * Collects nanosecond samples and summarizes them as {@link SessionReplay.Percentiles}. Thread-safe.
+ * <p>
+ * The samples are counted in a histogram of fixed size instead of being kept, so recording never
+ * allocates however long a replay runs. Each power of two is split into {@value #SUB_BUCKETS}
+ * buckets, a percentile is therefore off by at most one sixteenth of its value. The count and the
+ * maximum are exact.
+ */
+final class LatencyRecorder {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  /** The amount of buckets per power of two */
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final long[] buckets = new long[(Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+  private long count;
+  private long max;
+
+  synchronized void record(long nanos) {
+    final long value = Math.max(nanos, 0);
+    buckets[bucket(value)]++;
+    count++;
+    max = Math.max(max, value);
+  }
+
+  synchronized SessionReplay.Percentiles percentiles() {
+    if (count == 0) {
+      return new SessionReplay.Percentiles(0, 0, 0, 0, 0);
+    }
+    return new SessionReplay.Percentiles(count, at(0.5), at(0.9), at(0.99), max);
+  }
+
+  /**
+   * Returns the highest value of the bucket holding the sample at the quantile
+   */
+  private long at(double quantile) {
+    final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        return Math.min(lowestValue(i + 1) - 1, max);
+      }
+    }
+    return max;
+  }
+
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    // The bits below the highest one select the bucket within its power of two
+    final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  private static long lowestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_BUCKETS - 1;
+    return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+  }
+}
@@ -0,0 +1,179 @@
+package net.wesjd.anvilgui;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Runs tasks of anvil GUIs in the next tick, with a single scheduled task per region draining all
+ * of them instead of one scheduled task each.
+ * <p>
+ * Tasks are queued lock-free per region, regardless of the plugin they belong to. A drain stops
+ * once its time budget is used up and leaves the remaining tasks for the next tick, so a burst of
+ * completing click handlers is spread over several ticks instead of all of them running in one,
+ * no matter how many plugins the burst comes from.
+ */
+final class RegionTickQueue {
+
+  /** The amount of queued tasks */
+  private final AtomicInteger queued = new AtomicInteger();
+  private final Map<Object, Region> regions = new ConcurrentHashMap<>();
+  private volatile long budgetNanos;
+
+  RegionTickQueue(long budgetNanos) {
+    this.budgetNanos = budgetNanos;
+  }
+
+  long budgetNanos() {
+    return budgetNanos;
+  }
+
+  /**
+   * Sets the time a region may spend per tick on queued tasks
+   *
+   * @param budgetNanos The budget in nanoseconds
+   */
+  void budgetNanos(long budgetNanos) {
+    this.budgetNanos = budgetNanos;
+  }
+
+  int queued() {
+    return queued.get();
+  }
+
+  /**
+   * Queues the task to run in the next tick on the thread owning the player. May be called from
+   * any thread.
+   *
+   * @param plugin The plugin the task belongs to
+   * @param player The player the task belongs to
+   * @param task   The task
+   */
+  void submit(Plugin plugin, Player player, Runnable task) {
+    final Object key = Regions.key(player);
+    final Region region = regions.computeIfAbsent(key, Region::new);
+    final Entry entry = new Entry(plugin, player, task);
+    region.tasks.offer(entry);
+    queued.incrementAndGet();
+    region.schedule(entry);
+  }
+
+  /**
+   * Drops the queued tasks of a disabled plugin. Drains the plugin scheduled are cancelled with it,
+   * so they are scheduled again for the tasks of the other plugins.
+   *
+   * @param plugin The disabled plugin
+   */
+  void discard(Plugin plugin) {
+    for (Region region : regions.values()) {
+      for (Entry entry : region.tasks) {
+        // Only count the entries removed here, not the ones a drain polled meanwhile
+        if (entry.plugin == plugin && region.tasks.remove(entry)) {
+          queued.decrementAndGet();
+        }
+      }
+      if (region.scheduledBy == plugin && region.scheduled.compareAndSet(true, false)) {
+        final Entry head = region.tasks.peek();
+        if (head != null) {
+          region.schedule(head);
+        }
+      }
+    }
+  }
+
+  /**
+   * A queue of the tasks of players in the same region
+   */
+  private final class Region {
+
+    private final Object key;
+    private final Queue<Entry> tasks = new ConcurrentLinkedQueue<>();
+    /** Whether a drain is scheduled, so there is at most one per region */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /** The plugin the scheduled drain belongs to */
+    private volatile Plugin scheduledBy;
+
+    private Region(Object key) {
+      this.key = key;
+    }
+
+    private void schedule(Entry anchor) {
+      if (scheduled.compareAndSet(false, true)) {
+        scheduledBy = anchor.plugin;
+        try {
+          Regions.schedule(anchor.plugin, anchor.player, this::drain);
+        } catch (RuntimeException e) {
+          // The plugin has been disabled, its anvil GUIs are closing anyway
+          scheduled.set(false);
+          throw e;
+        }
+      }
+    }
+
+    private void drain() {
+      final long deadline = System.nanoTime() + budgetNanos;
+      // Always run at least one task, so the queue makes progress even with a tiny budget
+      do {
+        final Entry entry = tasks.poll();
+        if (entry == null) {
+          break;
+        }
+        queued.decrementAndGet();
+        entry.run();
+      } while (System.nanoTime() < deadline);
+
+      scheduled.set(false);
+      if (tasks.isEmpty()) {
+        regions.remove(key, this);
+      }
+      // Roll tasks over to the next tick, including ones queued while the drain was finishing
+      final Entry head = tasks.peek();
+      if (head != null) {
+        schedule(head);
+      }
+    }
+  }
+
+  /**
+   * A queued task and the plugin and player it belongs to
+   */
+  private static final class Entry {
+
+    private final Plugin plugin;
+    private final Player player;
+    private final Runnable task;
+
+    private Entry(Plugin plugin, Player player, Runnable task) {
+      this.plugin = plugin;
+      this.player = player;
+      this.task = task;
+    }
+
+    private void run() {
+      if (!player.isOnline()) {
+        // The player left the server since the task has been queued, like the entity scheduler
+        // the task is dropped instead of reopening an anvil for an offline player
+        return;
+      }
+      if (Regions.ownsPlayer(player)) {
+        runTask();
+      } else {
+        // The player left the region since the task has been queued
+        player.getScheduler().run(plugin, scheduledTask -> runTask(), null);
+      }
+    }
+
+    private void runTask() {
+      try {
+        task.run();
+      } catch (Throwable t) {
+        plugin.getSLF4JLogger().error("An exception occurred in an AnvilGUI task", t);
+      }
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package net.wesjd.anvilgui;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Helpers to run work on the thread owning a player, batching players that share a thread.
+ * <p>
+ * On Paper every player is owned by the main thread. On Folia players are owned by the thread
+ * ticking their region, regions always consist of whole sections of {@code 2^SECTION_SHIFT} chunks
+ * per axis. Players in the same section are therefore always ticked by the same thread.
+ */
+final class Regions {
+
+  /** Whether the server runs Folia's regionised multithreading */
+  static final boolean FOLIA = classExists("io.papermc.paper.threadedregions.RegionizedServer");
+  /** The default size of a Folia region section, as shift of the chunk coordinates */
+  private static final int SECTION_SHIFT = 4;
+  /** The key of the single region on a server that is not running Folia */
+  private static final Object GLOBAL = new Object();
+
+  private Regions() {}
+
+  /**
+   * Checks whether the current thread owns the player
+   *
+   * @param player The player to check
+   * @return true if the player may be accessed from the current thread
+   */
+  static boolean ownsPlayer(Player player) {
+    return FOLIA ? Bukkit.isOwnedByCurrentRegion(player) : Bukkit.isPrimaryThread();
+  }
+
+  /**
+   * Returns a key that is equal for players that are guaranteed to be owned by the same thread. The
+   * location is read without owning the player, so the key is only a hint on Folia.
+   *
+   * @param player The player
+   * @return The key of the region section the player is in
+   */
+  static Object key(Player player) {
+    if (!FOLIA) {
+      return GLOBAL;
+    }
+    final Location location = player.getLocation();
+    return new SectionKey(
+        location.getWorld().getUID(),
+        location.getChunkX() >> SECTION_SHIFT,
+        location.getChunkZ() >> SECTION_SHIFT);
+  }
+
+  /**
+   * Runs the task on the thread owning the region the anchor player is in, inline if that is the
+   * current thread
+   *
+   * @param plugin The plugin to schedule the task for
+   * @param anchor The player whose region should run the task
+   * @param task   The task
+   */
+  static void execute(Plugin plugin, Player anchor, Runnable task) {
+    if (ownsPlayer(anchor)) {
+      task.run();
+    } else if (FOLIA) {
+      Bukkit.getRegionScheduler().execute(plugin, anchor.getLocation(), task);
+    } else {
+      Bukkit.getGlobalRegionScheduler().execute(plugin, task);
+    }
+  }
+
+  /**
+   * Runs the task in the next tick on the thread owning the region the anchor player is in
+   *
+   * @param plugin The plugin to schedule the task for
+   * @param anchor The player whose region should run the task
+   * @param task   The task
+   */
+  static void schedule(Plugin plugin, Player anchor, Runnable task) {
+    if (FOLIA) {
+      Bukkit.getRegionScheduler().execute(plugin, anchor.getLocation(), task);
+    } else {
+      Bukkit.getGlobalRegionScheduler().execute(plugin, task);
+    }
+  }
+
+  /**
+   * Applies the action to every item on the thread owning its player. Items whose players share a
+   * region are handled by a single task. Should a player have left the region before the task ran,
+   * the action falls back to the player's own scheduler.
+   *
+   * @param items    The items to apply the action to
+   * @param playerOf Maps an item to the player deciding the thread
+   * @param pluginOf Maps an item to the plugin used for scheduling and error reporting
+   * @param action   The action
+   * @param <T>      The type of the items
+   * @return A future completing once the action has been applied to every item
+   */
+  static <T> CompletableFuture<Void> forEachGrouped(
+      Collection<? extends T> items,
+      Function<? super T, Player> playerOf,
+      Function<? super T, Plugin> pluginOf,
+      Consumer<? super T> action) {
+    if (items.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    final Map<Object, List<T>> groups = new HashMap<>();
+    for (T item : items) {
+      groups.computeIfAbsent(key(playerOf.apply(item)), key -> new ArrayList<>()).add(item);
+    }
+
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+    final AtomicInteger remaining = new AtomicInteger(items.size());
+    final Runnable countDown = () -> {
+      if (remaining.decrementAndGet() == 0) {
+        done.complete(null);
+      }
+    };
+
+    for (List<T> group : groups.values()) {
+      final T first = group.get(0);
+      execute(pluginOf.apply(first), playerOf.apply(first), () -> {
+        for (T item : group) {
+          final Player player = playerOf.apply(item);
+          final Plugin plugin = pluginOf.apply(item);
+          if (ownsPlayer(player)) {
+            apply(plugin, action, item);
+            countDown.run();
+          } else if (player.getScheduler().run(
+                  plugin,
+                  task -> {
+                    apply(plugin, action, item);
+                    countDown.run();
+                  },
+                  countDown)
+              == null) {
+            countDown.run();
+          }
+        }
+      });
+    }
+    return done;
+  }
+
+  private static <T> void apply(Plugin plugin, Consumer<? super T> action, T item) {
+    try {
+      action.accept(item);
+    } catch (Throwable t) {
+      plugin.getSLF4JLogger().error("An exception occurred in an AnvilGUI bulk operation", t);
+    }
+  }
+
+  private static boolean classExists(String name) {
+    try {
+      Class.forName(name);
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private record SectionKey(UUID world, int x, int z) {}
+}
@@ -0,0 +1,156 @@
+package net.wesjd.anvilgui;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Dispatches {@link AnvilGUI.SessionEvent}s to any number of listeners, each receiving them on the
+ * thread decided by its {@link AnvilGUI.Delivery}.
+ * <p>
+ * One bus exists per {@link AnvilGUI} and one for all of them in the {@link AnvilGUIRuntime}.
+ */
+final class SessionEventBus {
+
+  private final CopyOnWriteArrayList<Listener<?>> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Checks whether anyone is listening, so callers can skip building events nobody will receive
+   *
+   * @return true if no listener is registered
+   */
+  boolean isEmpty() {
+    return listeners.isEmpty();
+  }
+
+  /**
+   * Registers a listener
+   *
+   * @param plugin   The {@link Plugin} owning the listener, used for scheduling and error reporting
+   * @param type     The type of events the listener is interested in
+   * @param delivery Where the listener is called
+   * @param consumer The listener
+   * @param <E>      The type of the events
+   * @return A handle to remove the listener again
+   */
+  <E extends AnvilGUI.SessionEvent> AnvilGUI.Subscription subscribe(
+      Plugin plugin, Class<E> type, AnvilGUI.Delivery delivery, Consumer<? super E> consumer) {
+    Objects.requireNonNull(plugin, "plugin");
+    Objects.requireNonNull(type, "type");
+    Objects.requireNonNull(delivery, "delivery");
+    Objects.requireNonNull(consumer, "consumer");
+    final Listener<E> listener = new Listener<>(plugin, type, delivery, consumer);
+    listeners.add(listener);
+    return listener;
+  }
+
+  /**
+   * Hands the event to every listener interested in its type. Listeners of plugins that have been
+   * disabled in the meantime are dropped.
+   *
+   * @param event The event to dispatch
+   */
+  void post(AnvilGUI.SessionEvent event) {
+    for (Listener<?> listener : listeners) {
+      if (!listener.plugin.isEnabled()) {
+        listeners.remove(listener);
+        continue;
+      }
+      if (listener.type.isInstance(event)) {
+        listener.dispatch(event);
+      }
+    }
+  }
+
+  private final class Listener<E extends AnvilGUI.SessionEvent> implements AnvilGUI.Subscription {
+
+    private final Plugin plugin;
+    private final Class<E> type;
+    private final AnvilGUI.Delivery delivery;
+    private final Consumer<? super E> consumer;
+    /** Keeps the events of {@link AnvilGUI.Delivery#ASYNC} listeners in order, null otherwise */
+    private final SerialExecutor serialExecutor;
+
+    private Listener(
+        Plugin plugin, Class<E> type, AnvilGUI.Delivery delivery, Consumer<? super E> consumer) {
+      this.plugin = plugin;
+      this.type = type;
+      this.delivery = delivery;
+      this.consumer = consumer;
+      this.serialExecutor = delivery == AnvilGUI.Delivery.ASYNC
+          ? new SerialExecutor(AnvilGUIRuntime.get().asyncExecutor())
+          : null;
+    }
+
+    private void dispatch(AnvilGUI.SessionEvent event) {
+      final E typed = type.cast(event);
+      switch (delivery) {
+        case INLINE -> accept(typed);
+        case ASYNC -> serialExecutor.execute(() -> accept(typed));
+        case ENTITY_SCHEDULER -> {
+          final Runnable deliver = () -> accept(typed);
+          // Once the player has left, the entity scheduler rejects or retires the task. The Closed
+          // event of a disconnect must still arrive, so it is delivered on the global region.
+          final Runnable fallback =
+              () -> Bukkit.getGlobalRegionScheduler().execute(plugin, deliver);
+          if (event.player().getScheduler().run(plugin, task -> deliver.run(), fallback) == null) {
+            fallback.run();
+          }
+        }
+      }
+    }
+
+    private void accept(E event) {
+      try {
+        consumer.accept(event);
+      } catch (Throwable t) {
+        plugin.getSLF4JLogger().error("An exception occurred in an AnvilGUI event listener", t);
+      }
+    }
+
+    @Override
+    public void cancel() {
+      listeners.remove(this);
+    }
+  }
+
+  /**
+   * Runs the submitted tasks one after another on the delegate, in submission order
+   */
+  private static final class SerialExecutor implements Executor {
+
+    private final Executor delegate;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private SerialExecutor(Executor delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+      if (scheduled.compareAndSet(false, true)) {
+        delegate.execute(this::drain);
+      }
+    }
+
+    private void drain() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        task.run();
+      }
+      scheduled.set(false);
+      // A task may have been added after polling the last one but before resetting the flag
+      if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+        delegate.execute(this::drain);
+      }
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package net.wesjd.anvilgui;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A hot {@link Flow.Publisher} that fans out the events of a single {@link AnvilGUI} session to its
+ * subscribers.
+ * <p>
+ * Every subscription owns a queue whose overflow behaviour is decided by the configured
+ * {@link AnvilGUI.Backpressure}. Events are delivered on the thread that publishes them or on the
+ * thread requesting more of them, but never concurrently for the same subscriber.
+ *
+ * @param <T> The type of the published events
+ */
+final class SessionEventPublisher<T> implements Flow.Publisher<T> {
+
+  /** The strategy used when a subscriber has no outstanding demand */
+  private final AnvilGUI.Backpressure backpressure;
+  /** The maximum amount of events that are queued per subscriber */
+  private final int bufferSize;
+  /** The currently active subscriptions */
+  private final CopyOnWriteArrayList<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+  /** Whether this publisher has been completed and no longer accepts new events */
+  private volatile boolean completed;
+
+  SessionEventPublisher(AnvilGUI.Backpressure backpressure, int bufferSize) {
+    this.backpressure = backpressure;
+    this.bufferSize = backpressure == AnvilGUI.Backpressure.LATEST ? 1 : bufferSize;
+  }
+
+  /**
+   * Checks whether anyone is listening, so callers can skip building events nobody will receive
+   *
+   * @return true if at least one subscription is active
+   */
+  boolean hasSubscribers() {
+    return !subscriptions.isEmpty();
+  }
+
+  /**
+   * Offers the event to all active subscriptions
+   *
+   * @param event The event to publish
+   */
+  void publish(T event) {
+    if (completed) {
+      return;
+    }
+    for (EventSubscription subscription : subscriptions) {
+      subscription.offer(event);
+    }
+  }
+
+  /**
+   * Completes all subscriptions once their queued events have been delivered. Subscribers arriving
+   * afterwards are completed immediately.
+   */
+  void complete() {
+    if (completed) {
+      return;
+    }
+    completed = true;
+    for (EventSubscription subscription : subscriptions) {
+      subscription.complete();
+    }
+  }
+
+  @Override
+  public void subscribe(@NotNull Flow.Subscriber<? super T> subscriber) {
+    Objects.requireNonNull(subscriber, "subscriber");
+    final EventSubscription subscription = new EventSubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+    subscriptions.add(subscription);
+    // The subscriber may have cancelled or failed within onSubscribe, before it has been added
+    if (subscription.cancelled) {
+      subscriptions.remove(subscription);
+      return;
+    }
+    if (completed) {
+      subscription.complete();
+    }
+  }
+
+  private final class EventSubscription implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super T> subscriber;
+    /** Guarded by itself, together with {@link #requested} */
+    private final ArrayDeque<T> queue;
+    /** Outstanding demand of the subscriber, guarded by {@link #queue} */
+    private long requested;
+    /** Serializes the drain loop, the value is the amount of missed drain requests */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile boolean done;
+    private volatile boolean cancelled;
+    private volatile Throwable error;
+
+    private EventSubscription(Flow.Subscriber<? super T> subscriber) {
+      this.subscriber = subscriber;
+      this.queue = new ArrayDeque<>(Math.min(bufferSize, 16));
+    }
+
+    private void offer(T event) {
+      synchronized (queue) {
+        if (queue.size() >= bufferSize) {
+          switch (backpressure) {
+            case BUFFER -> {
+              error = new IllegalStateException(
+                  "AnvilGUI event buffer of " + bufferSize + " exceeded by a slow subscriber");
+              queue.clear();
+            }
+            case DROP_OLDEST, LATEST -> {
+              queue.pollFirst();
+              queue.addLast(event);
+            }
+          }
+        } else {
+          queue.addLast(event);
+        }
+      }
+      drain();
+    }
+
+    private void complete() {
+      done = true;
+      drain();
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        error = new IllegalArgumentException("Requested amount must be positive, was " + n);
+      } else {
+        synchronized (queue) {
+          requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+        }
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      subscriptions.remove(this);
+      drain();
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        while (true) {
+          if (cancelled) {
+            synchronized (queue) {
+              queue.clear();
+            }
+            return;
+          }
+          final Throwable failure = error;
+          if (failure != null) {
+            terminate();
+            subscriber.onError(failure);
+            return;
+          }
+          final boolean finished = done;
+          final T event;
+          final boolean empty;
+          synchronized (queue) {
+            empty = queue.isEmpty();
+            if (!empty && requested > 0) {
+              event = queue.pollFirst();
+              if (requested != Long.MAX_VALUE) {
+                requested--;
+              }
+            } else {
+              event = null;
+            }
+          }
+          if (event == null) {
+            if (finished && empty) {
+              terminate();
+              subscriber.onComplete();
+              return;
+            }
+            break;
+          }
+          subscriber.onNext(event);
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void terminate() {
+      cancelled = true;
+      subscriptions.remove(this);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package net.wesjd.anvilgui;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Records the sessions of all {@link AnvilGUI}s on the server into a compact file, to be replayed
+ * later with {@link SessionReplay}.
+ * <p>
+ * For every session the open parameters, the sequence of rename texts, the clicks and the close are
+ * captured together with the time passed between them. Writing happens on a background thread.
+ *
+ * @since 2.0
+ */
+public final class SessionRecorder implements AutoCloseable {
+
+  /** The version of the recording encoding, bumped on incompatible changes */
+  static final int FORMAT_VERSION = 1;
+
+  static final byte OPEN = 0;
+  static final byte TEXT = 1;
+  static final byte CLICK = 2;
+  static final byte CLOSE = 3;
+
+  /**
+   * Starts recording every anvil GUI session on the server, appending to the file if it already
+   * exists
+   *
+   * @param plugin The {@link Plugin} owning the recording
+   * @param file   The file to record into
+   * @return The running {@link SessionRecorder}
+   * @throws IOException if the file could not be opened or is not a recording
+   * @throws NullPointerException if the plugin or file is null
+   */
+  public static @NotNull SessionRecorder start(@NotNull Plugin plugin, @NotNull Path file)
+      throws IOException {
+    Objects.requireNonNull(plugin, "plugin");
+    Objects.requireNonNull(file, "file");
+    return new SessionRecorder(plugin, file);
+  }
+
+  private final AppendLog<Entry> log;
+  private final AnvilGUI.Subscription subscription;
+  /** The open sessions, mapped to their id and the time of their last event */
+  private final Map<AnvilGUI, Clock> sessions = new ConcurrentHashMap<>();
+  private final AtomicInteger nextSessionId = new AtomicInteger();
+
+  private SessionRecorder(Plugin plugin, Path file) throws IOException {
+    log = new AppendLog<>(
+        file,
+        FORMAT_VERSION,
+        SessionRecorder::encode,
+        1024,
+        "AnvilGUI-recorder-" + plugin.getName(),
+        plugin.getSLF4JLogger());
+    subscription = AnvilGUIRuntime.get()
+        .subscribe(plugin, AnvilGUI.SessionEvent.class, AnvilGUI.Delivery.INLINE, this::record);
+  }
+
+  private void record(AnvilGUI.SessionEvent event) {
+    final long now = System.nanoTime();
+    switch (event) {
+      case AnvilGUI.SessionEvent.Opened opened -> {
+        final Clock clock = new Clock(nextSessionId.getAndIncrement(), now);
+        if (sessions.putIfAbsent(opened.gui(), clock) == null) {
+          log.append(new Entry(clock.id, OPEN, 0, 0, null, opened.gui().openParameters()));
+        }
+      }
+      case AnvilGUI.SessionEvent.TextChanged textChanged -> {
+        final Clock clock = sessions.get(textChanged.gui());
+        if (clock != null) {
+          log.append(new Entry(clock.id, TEXT, clock.tick(now), 0, textChanged.text(), null));
+        }
+      }
+      case AnvilGUI.SessionEvent.SlotClicked slotClicked -> {
+        final Clock clock = sessions.get(slotClicked.gui());
+        if (clock != null) {
+          log.append(new Entry(clock.id, CLICK, clock.tick(now), slotClicked.slot(), null, null));
+        }
+      }
+      case AnvilGUI.SessionEvent.Closed closed -> {
+        final Clock clock = sessions.remove(closed.gui());
+        if (clock != null) {
+          log.append(new Entry(clock.id, CLOSE, clock.tick(now), 0, null, null));
+        }
+      }
+      case AnvilGUI.SessionEvent.ActionApplied ignored -> {}
+    }
+  }
+
+  /**
+   * Stops recording and writes everything recorded so far
+   */
+  @Override
+  public void close() {
+    subscription.cancel();
+    log.close();
+  }
+
+  private static void encode(Entry entry, DataOutput out) throws IOException {
+    AppendLog.writeVarInt(out, entry.session());
+    out.writeByte(entry.type());
+    AppendLog.writeVarInt(out, entry.delayMicros());
+    switch (entry.type()) {
+      case OPEN -> {
+        final SessionReplay.OpenParameters parameters = entry.parameters();
+        out.writeUTF(parameters.title());
+        out.writeUTF(parameters.text());
+        out.writeBoolean(parameters.preventClose());
+        out.writeBoolean(parameters.concurrentClickHandlerExecution());
+        out.writeByte(parameters.interactableSlots());
+      }
+      case TEXT -> out.writeUTF(entry.text());
+      case CLICK -> out.writeByte(entry.slot());
+      default -> {}
+    }
+  }
+
+  /**
+   * A recorded event, waiting for the writer thread
+   *
+   * @param session     The id of the session within the recording
+   * @param type        One of {@link #OPEN}, {@link #TEXT}, {@link #CLICK} and {@link #CLOSE}
+   * @param delayMicros The time passed since the previous event of the session
+   */
+  record Entry(
+      int session,
+      byte type,
+      int delayMicros,
+      int slot,
+      String text,
+      SessionReplay.OpenParameters parameters) {}
+
+  private static final class Clock {
+
+    private final int id;
+    private long last;
+
+    private Clock(int id, long start) {
+      this.id = id;
+      this.last = start;
+    }
+
+    private int tick(long now) {
+      final long delay = (now - last) / 1000;
+      last = now;
+      return (int) Math.min(delay, Integer.MAX_VALUE);
+    }
+  }
+}
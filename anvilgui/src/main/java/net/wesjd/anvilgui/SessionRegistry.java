@@ -0,0 +1,125 @@
+package net.wesjd.anvilgui;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Keeps track of the open {@link AnvilGUI}s of this copy of the library. Plugins shading their own
+ * copy have their own registry.
+ * <p>
+ * The inventory events of the players are routed to their anvil GUI by the {@link SharedRuntime},
+ * instead of every anvil GUI registering its own listeners and checking every inventory event.
+ * Every plugin with open anvil GUIs has a single {@link PluginSessions} listener registered that
+ * closes them once the plugin is disabled.
+ */
+final class SessionRegistry {
+
+  /** The open anvil GUIs by the {@link UUID} of their player */
+  private final Map<UUID, AnvilGUI> byPlayer = new ConcurrentHashMap<>();
+  /** The open anvil GUIs of the plugins that have opened any */
+  private final Map<Plugin, PluginSessions> byPlugin = new ConcurrentHashMap<>();
+
+  /**
+   * Starts dispatching inventory events of the player to the anvil GUI
+   *
+   * @param gui The opened anvil GUI
+   */
+  void register(AnvilGUI gui) {
+    final Plugin plugin = gui.getPlugin();
+    AnvilGUIRuntime.get().tickHealthMonitor().ensureRunning(plugin);
+    byPlugin.computeIfAbsent(plugin, key -> {
+          final PluginSessions pluginSessions = new PluginSessions(key);
+          key.getServer().getPluginManager().registerEvents(pluginSessions, key);
+          return pluginSessions;
+        })
+        .sessions
+        .put(gui.getPlayer().getUniqueId(), gui);
+    byPlayer.put(gui.getPlayer().getUniqueId(), gui);
+    AnvilGUIRuntime.get().shared().route(plugin, gui.getPlayer().getUniqueId(), gui.listener);
+  }
+
+  /**
+   * Stops dispatching inventory events to the anvil GUI
+   *
+   * @param gui The closed anvil GUI
+   */
+  void unregister(AnvilGUI gui) {
+    final UUID playerId = gui.getPlayer().getUniqueId();
+    byPlayer.remove(playerId, gui);
+    AnvilGUIRuntime.get().shared().unroute(playerId, gui.listener);
+    final PluginSessions pluginSessions = byPlugin.get(gui.getPlugin());
+    if (pluginSessions != null) {
+      pluginSessions.sessions.remove(playerId, gui);
+    }
+  }
+
+  /**
+   * Returns the open anvil GUI of the player
+   *
+   * @param playerId The {@link UUID} of the player
+   * @return The {@link AnvilGUI} or null
+   */
+  AnvilGUI session(UUID playerId) {
+    return byPlayer.get(playerId);
+  }
+
+  /**
+   * Returns the open anvil GUIs of the plugin
+   *
+   * @param plugin The plugin that opened the anvil GUIs
+   * @return A snapshot of the open {@link AnvilGUI}s
+   */
+  List<AnvilGUI> sessions(Plugin plugin) {
+    final PluginSessions pluginSessions = byPlugin.get(plugin);
+    return pluginSessions == null ? List.of() : List.copyOf(pluginSessions.sessions.values());
+  }
+
+  /**
+   * Returns the open anvil GUIs matching the filter
+   *
+   * @param filter The filter
+   * @return A snapshot of the matching open {@link AnvilGUI}s
+   */
+  List<AnvilGUI> sessions(Predicate<? super AnvilGUI> filter) {
+    final List<AnvilGUI> sessions = new ArrayList<>();
+    for (AnvilGUI gui : byPlayer.values()) {
+      if (filter.test(gui)) {
+        sessions.add(gui);
+      }
+    }
+    return sessions;
+  }
+
+  /**
+   * The open anvil GUIs of a single plugin, closed when the plugin is disabled
+   */
+  private final class PluginSessions implements Listener {
+
+    private final Plugin plugin;
+    /** The open anvil GUIs of the plugin by the {@link UUID} of their player */
+    private final Map<UUID, AnvilGUI> sessions = new ConcurrentHashMap<>();
+
+    private PluginSessions(Plugin plugin) {
+      this.plugin = plugin;
+    }
+
+    // Clear inventories before server shutdown, in one pass for all anvil GUIs of the plugin
+    @EventHandler
+    public void onPluginDisable(PluginDisableEvent event) {
+      if (event.getPlugin().equals(plugin)) {
+        for (AnvilGUI gui : List.copyOf(sessions.values())) {
+          gui.closeInventory();
+        }
+        byPlugin.remove(plugin, this);
+        HandlerList.unregisterAll(this);
+        AnvilGUIRuntime.get().forget(plugin);
+      }
+    }
+  }
+}
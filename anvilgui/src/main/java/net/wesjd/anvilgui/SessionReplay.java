@@ -0,0 +1,463 @@
+package net.wesjd.anvilgui;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Replays sessions captured by {@link SessionRecorder} against a {@link Target}, headless and at an
+ * accelerated speed, with many simulated players.
+ * <p>
+ * All events are dispatched from the thread calling {@link #run(Target, int, double)}, standing in
+ * for the server thread. The resulting {@link Report} contains the cost of every dispatch, the
+ * allocation rate of the dispatching thread and the latency of the click handlers, so it can be
+ * compared between library versions.
+ *
+ * @since 2.0
+ */
+public final class SessionReplay {
+
+  /** Time between the start of two simulated players, so they do not type in lockstep */
+  private static final long STAGGER_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * Loads all sessions of a recording. Sessions whose opening has not been recorded are skipped,
+   * sessions without a recorded close are closed right after their last event.
+   *
+   * @param file The recording
+   * @return The loaded {@link SessionReplay}
+   * @throws IOException if the file could not be read or is not a recording
+   * @throws NullPointerException if the file is null
+   */
+  public static @NotNull SessionReplay load(@NotNull Path file) throws IOException {
+    Objects.requireNonNull(file, "file");
+    final Map<Integer, RecordedSession.Builder> open = new LinkedHashMap<>();
+    final List<RecordedSession> sessions = new ArrayList<>();
+    AppendLog.read(file, SessionRecorder.FORMAT_VERSION, SessionReplay::decode, entry -> {
+      if (entry.type() == SessionRecorder.OPEN) {
+        open.put(entry.session(), new RecordedSession.Builder(entry.parameters()));
+        return;
+      }
+      final RecordedSession.Builder session = open.get(entry.session());
+      if (session == null) {
+        return;
+      }
+      session.add(entry);
+      if (entry.type() == SessionRecorder.CLOSE) {
+        sessions.add(open.remove(entry.session()).build());
+      }
+    });
+    for (RecordedSession.Builder session : open.values()) {
+      session.add(new SessionRecorder.Entry(0, SessionRecorder.CLOSE, 0, 0, null, null));
+      sessions.add(session.build());
+    }
+    return new SessionReplay(List.copyOf(sessions));
+  }
+
+  private static SessionRecorder.Entry decode(DataInput in) throws IOException {
+    final int session = AppendLog.readVarInt(in);
+    final byte type = in.readByte();
+    final int delayMicros = AppendLog.readVarInt(in);
+    return switch (type) {
+      case SessionRecorder.OPEN -> new SessionRecorder.Entry(
+          session,
+          type,
+          delayMicros,
+          0,
+          null,
+          new OpenParameters(
+              in.readUTF(), in.readUTF(), in.readBoolean(), in.readBoolean(), in.readByte()));
+      case SessionRecorder.TEXT -> new SessionRecorder.Entry(
+          session, type, delayMicros, 0, in.readUTF(), null);
+      case SessionRecorder.CLICK -> new SessionRecorder.Entry(
+          session, type, delayMicros, in.readByte(), null, null);
+      case SessionRecorder.CLOSE -> new SessionRecorder.Entry(
+          session, type, delayMicros, 0, null, null);
+      default -> throw new IOException("Unknown event type " + type);
+    };
+  }
+
+  private final List<RecordedSession> sessions;
+
+  private SessionReplay(List<RecordedSession> sessions) {
+    this.sessions = sessions;
+  }
+
+  /**
+   * Returns the loaded sessions in the order they have been closed
+   *
+   * @return An immutable list of the {@link RecordedSession}s
+   */
+  public @NotNull List<@NotNull RecordedSession> sessions() {
+    return sessions;
+  }
+
+  /**
+   * Replays the loaded sessions. Simulated player {@code n} replays the session
+   * {@code n % sessions().size()}, all players start at roughly the same time.
+   *
+   * @param target  The code under test
+   * @param players The amount of simulated players
+   * @param speed   The factor the recorded delays are divided by,
+   *                {@link Double#POSITIVE_INFINITY} to replay without any delays
+   * @return The {@link Report} of the replay
+   * @throws NullPointerException if the target is null
+   * @throws IllegalArgumentException if players or speed is not positive
+   * @throws IllegalStateException if no session has been loaded
+   */
+  public @NotNull Report run(@NotNull Target target, int players, double speed) {
+    Objects.requireNonNull(target, "target");
+    if (players <= 0) {
+      throw new IllegalArgumentException("players must be positive, was " + players);
+    }
+    if (!(speed > 0)) {
+      throw new IllegalArgumentException("speed must be positive, was " + speed);
+    }
+    if (sessions.isEmpty()) {
+      throw new IllegalStateException("The recording does not contain any session");
+    }
+
+    final LatencyRecorder[] dispatchCosts = {
+      new LatencyRecorder(), new LatencyRecorder(), new LatencyRecorder(), new LatencyRecorder()
+    };
+    final LatencyRecorder handlerLatency = new LatencyRecorder();
+    final List<CompletableFuture<?>> pendingClicks = new ArrayList<>();
+    final AtomicLong failures = new AtomicLong();
+    long events = 0;
+
+    final long start = System.nanoTime();
+    final PriorityQueue<Cursor> queue =
+        new PriorityQueue<>(players, Comparator.comparingLong(cursor -> cursor.due));
+    for (int player = 0; player < players; player++) {
+      final RecordedSession session = sessions.get(player % sessions.size());
+      queue.add(new Cursor(player, session, start + player * STAGGER_NANOS));
+    }
+
+    final long allocatedBefore = allocatedBytes();
+    while (!queue.isEmpty()) {
+      final Cursor cursor = queue.poll();
+      final long wait = cursor.due - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+
+      final RecordedSession session = cursor.session;
+      final byte type = cursor.index < 0 ? SessionRecorder.OPEN : session.types[cursor.index];
+      final long dispatchStart = System.nanoTime();
+      try {
+        switch (type) {
+          case SessionRecorder.OPEN -> {
+            cursor.handle = target.open(cursor.player, session.parameters);
+          }
+          case SessionRecorder.TEXT -> cursor.handle.text(session.texts[cursor.index]);
+          case SessionRecorder.CLICK -> {
+            final CompletableFuture<?> result = cursor.handle.click(session.slots[cursor.index]);
+            if (result == null || result.isDone()) {
+              handlerLatency.record(System.nanoTime() - dispatchStart);
+            } else {
+              pendingClicks.add(result.whenComplete(
+                  (ignored, exception) -> handlerLatency.record(System.nanoTime() - dispatchStart)));
+            }
+          }
+          case SessionRecorder.CLOSE -> cursor.handle.close();
+        }
+      } catch (RuntimeException e) {
+        failures.incrementAndGet();
+      }
+      dispatchCosts[type].record(System.nanoTime() - dispatchStart);
+      events++;
+
+      if (cursor.handle != null && ++cursor.index < session.types.length) {
+        cursor.due += (long) (session.delaysNanos[cursor.index] / speed);
+        queue.add(cursor);
+      }
+    }
+    final long allocated = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+
+    try {
+      CompletableFuture.allOf(pendingClicks.toArray(CompletableFuture[]::new))
+          .get(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      failures.incrementAndGet();
+    }
+
+    final Duration wallTime = Duration.ofNanos(System.nanoTime() - start);
+    return new Report(
+        players,
+        events,
+        failures.get(),
+        wallTime,
+        allocated,
+        allocated < 0 ? -1 : allocated / Math.max(wallTime.toNanos() / 1e9, 1e-9),
+        dispatchCosts[SessionRecorder.OPEN].percentiles(),
+        dispatchCosts[SessionRecorder.TEXT].percentiles(),
+        dispatchCosts[SessionRecorder.CLICK].percentiles(),
+        dispatchCosts[SessionRecorder.CLOSE].percentiles(),
+        handlerLatency.percentiles());
+  }
+
+  /**
+   * Returns the bytes allocated by the current thread so far, or -1 if the JVM cannot tell
+   */
+  static long allocatedBytes() {
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+        && bean.isThreadAllocatedMemorySupported()
+        && bean.isThreadAllocatedMemoryEnabled()) {
+      return bean.getThreadAllocatedBytes(Thread.currentThread().threadId());
+    }
+    return -1;
+  }
+
+  /**
+   * The position of a simulated player within its session
+   */
+  private static final class Cursor {
+
+    private final int player;
+    private final RecordedSession session;
+    /** The index of the next event, -1 for the opening */
+    private int index = -1;
+    /** The time the next event is due at, in {@link System#nanoTime()} */
+    private long due;
+
+    private TargetSession handle;
+
+    private Cursor(int player, RecordedSession session, long due) {
+      this.player = player;
+      this.session = session;
+      this.due = due;
+    }
+  }
+
+  /**
+   * The code under test, adapting the replayed events to the library
+   */
+  @FunctionalInterface
+  public interface Target {
+
+    /**
+     * Opens an anvil GUI for a simulated player
+     *
+     * @param player     The index of the simulated player
+     * @param parameters The recorded parameters the anvil GUI has been opened with
+     * @return The {@link TargetSession} receiving the following events of the session
+     */
+    @NotNull
+    TargetSession open(int player, @NotNull OpenParameters parameters);
+  }
+
+  /**
+   * A session opened by a {@link Target}
+   */
+  public interface TargetSession {
+
+    /**
+     * The simulated player changed the rename text
+     *
+     * @param text The new text
+     */
+    void text(@NotNull String text);
+
+    /**
+     * The simulated player clicked a slot
+     *
+     * @param slot The slot number corresponding to {@link AnvilGUI.Slot}
+     * @return A future completing once the click handler has finished, or null if it already has
+     */
+    @Nullable
+    CompletableFuture<?> click(int slot);
+
+    /**
+     * The simulated player closed the anvil GUI
+     */
+    void close();
+  }
+
+  /**
+   * The parameters an anvil GUI has been opened with
+   *
+   * @param title                           The title as plain text
+   * @param text                            The initial rename text as plain text
+   * @param preventClose                    Whether closing the anvil GUI is prevented
+   * @param concurrentClickHandlerExecution Whether click handlers may run concurrently
+   * @param interactableSlots               A bit set of the interactable slots, bit {@code n} set
+   *                                        meaning slot {@code n} is interactable
+   */
+  public record OpenParameters(
+      @NotNull String title,
+      @NotNull String text,
+      boolean preventClose,
+      boolean concurrentClickHandlerExecution,
+      int interactableSlots) {}
+
+  /**
+   * A session loaded from a recording
+   */
+  public static final class RecordedSession {
+
+    private final OpenParameters parameters;
+    private final byte[] types;
+    private final long[] delaysNanos;
+    private final int[] slots;
+    private final String[] texts;
+
+    private RecordedSession(
+        OpenParameters parameters, byte[] types, long[] delaysNanos, int[] slots, String[] texts) {
+      this.parameters = parameters;
+      this.types = types;
+      this.delaysNanos = delaysNanos;
+      this.slots = slots;
+      this.texts = texts;
+    }
+
+    /**
+     * Returns the parameters the anvil GUI has been opened with
+     *
+     * @return The {@link OpenParameters}
+     */
+    public @NotNull OpenParameters parameters() {
+      return parameters;
+    }
+
+    /**
+     * Returns the amount of events after the opening
+     *
+     * @return The amount of events
+     */
+    public int events() {
+      return types.length;
+    }
+
+    /**
+     * Returns the recorded time between opening and the last event
+     *
+     * @return The {@link Duration} of the session
+     */
+    public @NotNull Duration duration() {
+      long total = 0;
+      for (long delay : delaysNanos) {
+        total += delay;
+      }
+      return Duration.ofNanos(total);
+    }
+
+    private static final class Builder {
+
+      private final OpenParameters parameters;
+      private final List<SessionRecorder.Entry> entries = new ArrayList<>();
+
+      private Builder(OpenParameters parameters) {
+        this.parameters = parameters;
+      }
+
+      private void add(SessionRecorder.Entry entry) {
+        entries.add(entry);
+      }
+
+      private RecordedSession build() {
+        final int size = entries.size();
+        final byte[] types = new byte[size];
+        final long[] delays = new long[size];
+        final int[] slots = new int[size];
+        final String[] texts = new String[size];
+        for (int i = 0; i < size; i++) {
+          final SessionRecorder.Entry entry = entries.get(i);
+          types[i] = entry.type();
+          delays[i] = TimeUnit.MICROSECONDS.toNanos(entry.delayMicros());
+          slots[i] = entry.slot();
+          texts[i] = entry.text();
+        }
+        return new RecordedSession(parameters, types, delays, slots, texts);
+      }
+    }
+  }
+
+  /**
+   * The result of a replay
+   *
+   * @param players                  The amount of simulated players
+   * @param events                   The amount of dispatched events
+   * @param failures                 The amount of events the target threw an exception for
+   * @param wallTime                 The time the replay took
+   * @param allocatedBytes           The bytes allocated by the dispatching thread, -1 if unknown
+   * @param allocatedBytesPerSecond  The allocation rate of the dispatching thread, -1 if unknown
+   * @param openCost                 The time spent opening anvil GUIs
+   * @param textCost                 The time spent dispatching rename text changes
+   * @param clickCost                The time spent dispatching clicks
+   * @param closeCost                The time spent closing anvil GUIs
+   * @param handlerLatency           The time between a click and the completion of its handler
+   */
+  public record Report(
+      int players,
+      long events,
+      long failures,
+      @NotNull Duration wallTime,
+      long allocatedBytes,
+      double allocatedBytesPerSecond,
+      @NotNull Percentiles openCost,
+      @NotNull Percentiles textCost,
+      @NotNull Percentiles clickCost,
+      @NotNull Percentiles closeCost,
+      @NotNull Percentiles handlerLatency) {
+
+    /**
+     * Formats the report for humans
+     *
+     * @return A multi-line summary
+     */
+    public @NotNull String summary() {
+      return String.format(
+          """
+          %d players, %d events (%d failed) in %d ms
+          allocated %.1f MB (%.1f MB/s)
+          open    %s
+          text    %s
+          click   %s
+          close   %s
+          handler %s""",
+          players,
+          events,
+          failures,
+          wallTime.toMillis(),
+          allocatedBytes / 1e6,
+          allocatedBytesPerSecond / 1e6,
+          openCost,
+          textCost,
+          clickCost,
+          closeCost,
+          handlerLatency);
+    }
+  }
+
+  /**
+   * A summary of recorded durations
+   *
+   * @param count The amount of samples
+   * @param p50   The median in nanoseconds
+   * @param p90   The 90th percentile in nanoseconds
+   * @param p99   The 99th percentile in nanoseconds
+   * @param max   The largest sample in nanoseconds
+   */
+  public record Percentiles(long count, long p50, long p90, long p99, long max) {
+
+    @Override
+    public String toString() {
+      return String.format(
+          "n=%d p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus",
+          count, p50 / 1e3, p90 / 1e3, p99 / 1e3, max / 1e3);
+    }
+  }
+}
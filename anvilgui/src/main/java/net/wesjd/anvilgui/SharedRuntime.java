@@ -0,0 +1,464 @@
+package net.wesjd.anvilgui;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.*;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.server.ServiceUnregisterEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.plugin.ServicePriority;
+import org.bukkit.plugin.ServicesManager;
+
+/**
+ * Shares one runtime between all copies of the library on the server, as every plugin shades and
+ * relocates its own copy.
+ * <p>
+ * The first copy opening an anvil GUI registers an {@link AnvilGUIService} with the Bukkit
+ * {@link ServicesManager} and becomes the leader. It is the only copy listening for inventory
+ * events, wrapping the listeners of stupid anvil plugins and scheduling the next tick tasks. Other
+ * copies find the service by its class name, as relocation changes the package only, and become
+ * thin clients routing the events of their players to themselves through it. Since the classes of
+ * the copies are unrelated, the service only exposes functions typed with JDK and Bukkit classes.
+ * Copies with a different {@link #PROTOCOL} do not share with each other.
+ * <p>
+ * Once the leader's plugin is disabled its service is unregistered, the next copy noticing it
+ * takes over and all copies route their open anvil GUIs to the new leader.
+ * <p>
+ * Joining registers listeners and services, so it only happens on the global region thread. The
+ * election runs while holding the lock of the {@link ServicesManager}, the one object all copies
+ * share, so two copies joining at the same time cannot both become leader.
+ */
+final class SharedRuntime {
+
+  /** The version of the functions exposed by the service, increased on incompatible changes */
+  static final int PROTOCOL = 1;
+
+  private static final String KEY_PROTOCOL = "protocol";
+  private static final String KEY_ROUTE = "route";
+  private static final String KEY_UNROUTE = "unroute";
+  private static final String KEY_MARK_HANDLED = "markHandled";
+  private static final String KEY_RELEASE = "release";
+  private static final String KEY_SCHEDULER = "scheduler";
+  private static final String KEY_FORGET = "forget";
+  private static final String KEY_TICK_BUDGET = "tickBudget";
+  private static final String KEY_SET_TICK_BUDGET = "setTickBudget";
+  private static final String KEY_QUEUED_TASKS = "queuedTasks";
+
+  private final AnvilGUIRuntime runtime;
+  private final AnvilLockout lockout = new AnvilLockout();
+  /** The handlers of the players with an open anvil GUI in any copy, while leading */
+  private final Map<UUID, Consumer<Event>> routes = new ConcurrentHashMap<>();
+  private final AnvilGUIService service;
+
+  /** The functions of the leader, null until an anvil GUI has been opened */
+  private volatile Hub hub;
+  /** The plugin this copy registered its listeners, and while leading its service, with */
+  private Plugin plugin;
+  /** The plugin a join on the global region thread has been scheduled with, null if none */
+  private Plugin joinScheduledBy;
+  private final Listener hubListener = new HubListener();
+  private final Listener watcher = new Watcher();
+
+  SharedRuntime(AnvilGUIRuntime runtime) {
+    this.runtime = runtime;
+    this.service = new AnvilGUIService();
+  }
+
+  /**
+   * Routes the inventory events of the player to the handler
+   *
+   * @param plugin  The plugin opening the anvil GUI, used to join if this copy has not yet
+   * @param player  The player of the anvil GUI
+   * @param handler The handler of the anvil GUI
+   */
+  void route(Plugin plugin, UUID player, Consumer<Event> handler) {
+    final Hub hub = hub(plugin);
+    if (hub != null) {
+      hub.route.accept(player, handler);
+    }
+  }
+
+  /**
+   * Stops routing the inventory events of the player to the handler
+   *
+   * @param player  The player of the anvil GUI
+   * @param handler The handler of the anvil GUI
+   */
+  void unroute(UUID player, Consumer<Event> handler) {
+    final Hub hub = this.hub;
+    if (hub != null) {
+      hub.unroute.accept(player, handler);
+    }
+  }
+
+  /**
+   * Keeps the stupid anvil plugins away from the event
+   *
+   * @param event The handled {@link PrepareAnvilEvent}
+   */
+  void markHandled(Event event) {
+    final Hub hub = this.hub;
+    if (hub != null) {
+      hub.markHandled.accept(event);
+    }
+  }
+
+  /**
+   * Forgets the last handled event if it belongs to the inventory
+   *
+   * @param inventory The inventory of a closed anvil GUI
+   */
+  void release(Inventory inventory) {
+    final Hub hub = this.hub;
+    if (hub != null) {
+      hub.release.accept(inventory);
+    }
+  }
+
+  /**
+   * Runs the task in the next tick on the thread owning the player, through the leader's
+   * {@link RegionTickQueue}, or the one of this copy until it has joined
+   *
+   * @param plugin The plugin the task belongs to
+   * @param player The player the task belongs to
+   * @param task   The task
+   */
+  void submit(Plugin plugin, Player player, Runnable task) {
+    final Hub hub = hub(plugin);
+    if (hub != null) {
+      hub.scheduler.apply(plugin).accept(player, task);
+    } else {
+      runtime.tickQueue().submit(plugin, player, task);
+    }
+  }
+
+  /**
+   * Drops everything belonging to a disabled plugin. Steps down if the plugin is the one this copy
+   * joined with, and joins again with another plugin still having anvil GUIs open.
+   *
+   * @param plugin The disabled plugin
+   */
+  void forget(Plugin plugin) {
+    final Hub hub = this.hub;
+    if (hub != null) {
+      hub.forget.accept(plugin);
+    }
+
+    synchronized (this) {
+      if (plugin == joinScheduledBy) {
+        // The scheduled join is cancelled with the plugin
+        joinScheduledBy = null;
+      } else if (plugin != this.plugin) {
+        return;
+      }
+      leave();
+    }
+    rejoin();
+  }
+
+  /**
+   * Sets the time each region may spend per tick on the queued tasks of all copies. Also kept by
+   * this copy, for when it leads.
+   *
+   * @param budgetNanos The budget in nanoseconds
+   */
+  void tickBudget(long budgetNanos) {
+    runtime.tickQueue().budgetNanos(budgetNanos);
+    final Hub leader = leader();
+    if (leader != null) {
+      leader.setTickBudget.accept(budgetNanos);
+    }
+  }
+
+  /**
+   * Returns the time each region may spend per tick on the queued tasks of all copies
+   *
+   * @return The budget of the leader in nanoseconds, or the one of this copy if there is none
+   */
+  long tickBudget() {
+    final Hub leader = leader();
+    return leader != null ? leader.tickBudget.getAsLong() : runtime.tickQueue().budgetNanos();
+  }
+
+  /**
+   * Returns the amount of tasks queued by all copies
+   *
+   * @return The amount of tasks in the leader's {@link RegionTickQueue}
+   */
+  int queuedTasks() {
+    final Hub leader = leader();
+    return leader != null ? leader.queuedTasks.getAsInt() : runtime.tickQueue().queued();
+  }
+
+  /**
+   * Returns the functions of the leader, looking it up without joining if this copy has not opened
+   * an anvil GUI yet
+   */
+  private Hub leader() {
+    final Hub hub = this.hub;
+    return hub != null ? hub : find(Bukkit.getServicesManager());
+  }
+
+  /**
+   * Returns the functions of the leader, joining first if this copy has not yet. Off the global
+   * region thread the join is scheduled there instead and null is returned, the join routes the
+   * anvil GUIs opened until then.
+   *
+   * @param plugin The plugin to join with
+   * @return The functions of the leader, or null until this copy has joined
+   */
+  private Hub hub(Plugin plugin) {
+    final Hub hub = this.hub;
+    if (hub != null) {
+      return hub;
+    }
+    if (Bukkit.isGlobalTickThread()) {
+      return join(plugin);
+    }
+    scheduleJoin(plugin);
+    return null;
+  }
+
+  private synchronized void scheduleJoin(Plugin plugin) {
+    if (hub != null || joinScheduledBy != null) {
+      return;
+    }
+    joinScheduledBy = plugin;
+    try {
+      Bukkit.getGlobalRegionScheduler().execute(plugin, () -> {
+        synchronized (this) {
+          if (joinScheduledBy != plugin) {
+            return;
+          }
+          joinScheduledBy = null;
+          join(plugin);
+        }
+        rejoin();
+      });
+    } catch (RuntimeException e) {
+      // The plugin has been disabled, its anvil GUIs are closing anyway
+      joinScheduledBy = null;
+    }
+  }
+
+  private synchronized Hub join(Plugin plugin) {
+    if (hub != null) {
+      return hub;
+    }
+
+    final ServicesManager services = plugin.getServer().getServicesManager();
+    Hub found;
+    // The copies share no class of their own, so they elect the leader under the lock of the
+    // services manager and check again for a leader once holding it
+    synchronized (services) {
+      found = find(services);
+      if (found == null) {
+        lockout.install();
+        plugin.getServer().getPluginManager().registerEvents(hubListener, plugin);
+        services.register(AnvilGUIService.class, service, plugin, ServicePriority.Normal);
+        found = Hub.of(service, service.get());
+      }
+    }
+    plugin.getServer().getPluginManager().registerEvents(watcher, plugin);
+    this.plugin = plugin;
+    this.hub = found;
+    return found;
+  }
+
+  /**
+   * Leaves the current leader, or stops leading, while holding the lock
+   */
+  private void leave() {
+    final Hub hub = this.hub;
+    this.hub = null;
+    HandlerList.unregisterAll(watcher);
+    if (hub != null && hub.provider == service) {
+      HandlerList.unregisterAll(hubListener);
+      lockout.uninstall();
+      routes.clear();
+      // Let the other copies elect a new leader right away
+      plugin.getServer().getServicesManager().unregister(service);
+    }
+    plugin = null;
+  }
+
+  /**
+   * Joins the shared runtime again and routes the open anvil GUIs of this copy there
+   */
+  private void rejoin() {
+    for (AnvilGUI gui : runtime.registry().sessions(gui -> true)) {
+      if (gui.getPlugin().isEnabled()) {
+        route(gui.getPlugin(), gui.getPlayer().getUniqueId(), gui.listener);
+      }
+    }
+  }
+
+  private static Hub find(ServicesManager services) {
+    for (Class<?> known : services.getKnownServices()) {
+      if (!known.getSimpleName().equals(AnvilGUIService.class.getSimpleName())) {
+        continue;
+      }
+      for (RegisteredServiceProvider<?> registration : services.getRegistrations(known)) {
+        if (registration.getProvider() instanceof Supplier<?> supplier
+            && supplier.get() instanceof Map<?, ?> functions
+            && Integer.valueOf(PROTOCOL).equals(functions.get(KEY_PROTOCOL))) {
+          return Hub.of(supplier, functions);
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The service registered by the leading copy. Relocated copies only know JDK and Bukkit classes
+   * in common, so it exposes a map of functions instead of methods.
+   */
+  final class AnvilGUIService implements Supplier<Map<String, Object>> {
+
+    private final Map<String, Object> functions;
+
+    private AnvilGUIService() {
+      final BiConsumer<UUID, Consumer<Event>> route = routes::put;
+      final BiConsumer<UUID, Consumer<Event>> unroute = routes::remove;
+      final Consumer<Event> markHandled = AnvilLockout::markHandled;
+      final Consumer<Inventory> release = AnvilLockout::release;
+      final Function<Plugin, BiConsumer<Player, Runnable>> scheduler =
+          plugin -> (player, task) -> runtime.tickQueue().submit(plugin, player, task);
+      final Consumer<Plugin> forget = plugin -> runtime.discardTasks(plugin);
+      final LongSupplier tickBudget = () -> runtime.tickQueue().budgetNanos();
+      final LongConsumer setTickBudget =
+          budgetNanos -> runtime.tickQueue().budgetNanos(budgetNanos);
+      final IntSupplier queuedTasks = () -> runtime.tickQueue().queued();
+      functions = Map.of(
+          KEY_PROTOCOL, PROTOCOL,
+          KEY_ROUTE, route,
+          KEY_UNROUTE, unroute,
+          KEY_MARK_HANDLED, markHandled,
+          KEY_RELEASE, release,
+          KEY_SCHEDULER, scheduler,
+          KEY_FORGET, forget,
+          KEY_TICK_BUDGET, tickBudget,
+          KEY_SET_TICK_BUDGET, setTickBudget,
+          KEY_QUEUED_TASKS, queuedTasks);
+    }
+
+    @Override
+    public Map<String, Object> get() {
+      return functions;
+    }
+  }
+
+  /**
+   * The functions of the leading copy
+   */
+  private record Hub(
+      Object provider,
+      BiConsumer<UUID, Consumer<Event>> route,
+      BiConsumer<UUID, Consumer<Event>> unroute,
+      Consumer<Event> markHandled,
+      Consumer<Inventory> release,
+      Function<Plugin, BiConsumer<Player, Runnable>> scheduler,
+      Consumer<Plugin> forget,
+      LongSupplier tickBudget,
+      LongConsumer setTickBudget,
+      IntSupplier queuedTasks) {
+
+    @SuppressWarnings("unchecked")
+    private static Hub of(Object provider, Map<?, ?> functions) {
+      return new Hub(
+          provider,
+          (BiConsumer<UUID, Consumer<Event>>) functions.get(KEY_ROUTE),
+          (BiConsumer<UUID, Consumer<Event>>) functions.get(KEY_UNROUTE),
+          (Consumer<Event>) functions.get(KEY_MARK_HANDLED),
+          (Consumer<Inventory>) functions.get(KEY_RELEASE),
+          (Function<Plugin, BiConsumer<Player, Runnable>>) functions.get(KEY_SCHEDULER),
+          (Consumer<Plugin>) functions.get(KEY_FORGET),
+          (LongSupplier) functions.get(KEY_TICK_BUDGET),
+          (LongConsumer) functions.get(KEY_SET_TICK_BUDGET),
+          (IntSupplier) functions.get(KEY_QUEUED_TASKS));
+    }
+  }
+
+  /**
+   * The only listener of inventory events across all copies, registered by the leader. Forwards
+   * the events to the anvil GUI of the player, in whichever copy it has been opened.
+   */
+  private final class HubListener implements Listener {
+
+    private void dispatch(HumanEntity player, Event event) {
+      final Consumer<Event> handler = routes.get(player.getUniqueId());
+      if (handler != null) {
+        handler.accept(event);
+      }
+    }
+
+    // Cant make this highest because then we might run after EcoEnchants
+    @EventHandler(priority = EventPriority.HIGH)
+    public void onPrepareAnvil(PrepareAnvilEvent event) {
+      dispatch(event.getView().getPlayer(), event);
+    }
+
+    @EventHandler
+    public void onInventoryClick(InventoryClickEvent event) {
+      dispatch(event.getWhoClicked(), event);
+    }
+
+    @EventHandler
+    public void onInventoryDrag(InventoryDragEvent event) {
+      dispatch(event.getWhoClicked(), event);
+    }
+
+    @EventHandler
+    public void onInventoryClose(InventoryCloseEvent event) {
+      dispatch(event.getPlayer(), event);
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+      dispatch(event.getPlayer(), event);
+    }
+  }
+
+  /**
+   * Notices the leader going away and takes over or joins the next leader
+   */
+  private final class Watcher implements Listener {
+
+    @EventHandler
+    public void onServiceUnregister(ServiceUnregisterEvent event) {
+      synchronized (SharedRuntime.this) {
+        final Hub hub = SharedRuntime.this.hub;
+        if (hub == null
+            || hub.provider == service
+            || event.getProvider().getProvider() != hub.provider) {
+          return;
+        }
+        final Plugin plugin = SharedRuntime.this.plugin;
+        leave();
+        if (!plugin.isEnabled()) {
+          return;
+        }
+        join(plugin);
+      }
+      rejoin();
+    }
+  }
+}
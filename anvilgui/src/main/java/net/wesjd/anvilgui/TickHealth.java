@@ -0,0 +1,95 @@
+package net.wesjd.anvilgui;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns tick time samples into a {@link AnvilGUIRuntime.DegradationLevel}. A level is entered as
+ * soon as its threshold is reached, but only left one level at a time once the tick time stayed
+ * below the threshold minus the hysteresis for several samples in a row, so the level does not
+ * flap around a threshold.
+ */
+final class TickHealth {
+
+  /** The amount of consecutive calm samples needed to step one level back */
+  static final int RECOVERY_SAMPLES = 5;
+
+  private static final AnvilGUIRuntime.DegradationLevel[] LEVELS =
+      AnvilGUIRuntime.DegradationLevel.values();
+
+  /** The tick time in milliseconds entering each level, indexed by ordinal, NORMAL is unused */
+  private double[] thresholds = {0, 40, 45, 50, 60};
+  /** How far below the threshold the tick time has to be to count as calm, in milliseconds */
+  private double hysteresis = 5;
+  /** The amount of consecutive calm samples so far */
+  private int calmSamples;
+
+  private volatile AnvilGUIRuntime.DegradationLevel level =
+      AnvilGUIRuntime.DegradationLevel.NORMAL;
+  private volatile double tickTime;
+  private volatile long debounceNanos = TimeUnit.MILLISECONDS.toNanos(250);
+
+  AnvilGUIRuntime.DegradationLevel level() {
+    return level;
+  }
+
+  /**
+   * Forces a level, until the next sample
+   *
+   * @param level The level
+   */
+  synchronized void level(AnvilGUIRuntime.DegradationLevel level) {
+    this.level = level;
+    calmSamples = 0;
+  }
+
+  double tickTime() {
+    return tickTime;
+  }
+
+  long debounceNanos() {
+    return debounceNanos;
+  }
+
+  void debounceNanos(long debounceNanos) {
+    this.debounceNanos = debounceNanos;
+  }
+
+  synchronized void thresholds(double[] thresholds) {
+    this.thresholds = thresholds;
+  }
+
+  synchronized void hysteresis(double hysteresis) {
+    this.hysteresis = hysteresis;
+  }
+
+  /**
+   * Updates the level with a new sample
+   *
+   * @param mspt The average tick time in milliseconds
+   * @return The level after the sample
+   */
+  synchronized AnvilGUIRuntime.DegradationLevel update(double mspt) {
+    tickTime = mspt;
+
+    int target = 0;
+    for (int i = 1; i < LEVELS.length; i++) {
+      if (mspt >= thresholds[i]) {
+        target = i;
+      }
+    }
+
+    final int current = level.ordinal();
+    if (target > current) {
+      level = LEVELS[target];
+      calmSamples = 0;
+    } else if (current > 0 && mspt < thresholds[current] - hysteresis) {
+      if (++calmSamples >= RECOVERY_SAMPLES) {
+        level = LEVELS[current - 1];
+        calmSamples = 0;
+      }
+    } else {
+      calmSamples = 0;
+    }
+    return level;
+  }
+}
@@ -0,0 +1,122 @@
+package net.wesjd.anvilgui;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Samples the tick time once a second and feeds it to the {@link TickHealth}. The sampling task is
+ * owned by the plugin that opened an anvil GUI first and moves to the next plugin opening one once
+ * that plugin is disabled.
+ */
+final class TickHealthMonitor {
+
+  /** The amount of ticks between two samples */
+  private static final long PERIOD_TICKS = 20;
+  /** The length of a tick on a server keeping up, in milliseconds */
+  private static final double TICK_MILLIS = 50;
+  /**
+   * The tick time assumed for a server keeping up when it does not report its tick times, in
+   * milliseconds. Below the default thresholds by more than the hysteresis, so it recovers to
+   * {@link AnvilGUIRuntime.DegradationLevel#NORMAL}.
+   */
+  private static final double ESTIMATED_BASELINE_MILLIS = 30;
+
+  private final TickHealth health;
+
+  private volatile boolean enabled = true;
+  private volatile Plugin owner;
+  private volatile ScheduledTask task;
+  /** The time of the previous sample, for servers that do not report their tick times */
+  private long lastSampleNanos;
+
+  TickHealthMonitor(TickHealth health) {
+    this.health = health;
+  }
+
+  /**
+   * Makes sure the tick time is sampled, with the plugin as owner of the task if there is none
+   *
+   * @param plugin The plugin that is opening an anvil GUI
+   */
+  void ensureRunning(Plugin plugin) {
+    if (!enabled || task != null) {
+      return;
+    }
+    synchronized (this) {
+      if (enabled && task == null) {
+        owner = plugin;
+        lastSampleNanos = System.nanoTime();
+        task = Bukkit.getGlobalRegionScheduler()
+            .runAtFixedRate(plugin, scheduledTask -> sample(), PERIOD_TICKS, PERIOD_TICKS);
+      }
+    }
+  }
+
+  /**
+   * Stops sampling if the plugin owns the task, the next plugin opening an anvil GUI takes over
+   *
+   * @param plugin The disabled plugin
+   */
+  synchronized void release(Plugin plugin) {
+    if (owner == plugin) {
+      stop();
+    }
+  }
+
+  boolean enabled() {
+    return enabled;
+  }
+
+  /**
+   * Enables or disables sampling, disabling also returns to
+   * {@link AnvilGUIRuntime.DegradationLevel#NORMAL}
+   *
+   * @param enabled Whether to sample the tick time
+   */
+  synchronized void enabled(boolean enabled) {
+    this.enabled = enabled;
+    if (!enabled) {
+      stop();
+      health.level(AnvilGUIRuntime.DegradationLevel.NORMAL);
+    }
+  }
+
+  private void stop() {
+    if (task != null) {
+      task.cancel();
+      task = null;
+      owner = null;
+    }
+  }
+
+  private void sample() {
+    final long now = System.nanoTime();
+    double mspt;
+    try {
+      mspt = Bukkit.getAverageTickTime();
+    } catch (UnsupportedOperationException e) {
+      // Folia does not have a single tick time, estimate it from the delay of this task instead.
+      // The delay only shows by how much ticks overran their 50 milliseconds, not how busy a tick
+      // keeping up is, so the overrun is added to a baseline below the thresholds. Otherwise a
+      // healthy region would already count as 50 mspt.
+      final double overrun = (now - lastSampleNanos) / 1e6 / PERIOD_TICKS - TICK_MILLIS;
+      mspt = ESTIMATED_BASELINE_MILLIS + Math.max(0, overrun);
+    }
+    lastSampleNanos = now;
+
+    final AnvilGUIRuntime.DegradationLevel before = health.level();
+    final AnvilGUIRuntime.DegradationLevel after = health.update(mspt);
+    if (before != after) {
+      final Plugin owner = this.owner;
+      if (owner != null) {
+        owner.getSLF4JLogger()
+            .info(
+                "AnvilGUI degradation level changed from {} to {} at {} mspt",
+                before,
+                after,
+                String.format("%.1f", mspt));
+      }
+    }
+  }
+}
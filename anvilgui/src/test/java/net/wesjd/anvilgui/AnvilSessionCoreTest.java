@@ -0,0 +1,201 @@
+package net.wesjd.anvilgui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import org.junit.jupiter.api.Test;
+
+class AnvilSessionCoreTest {
+
+  @Test
+  void clickHandlerReturningNullReleasesItsPermit() {
+    final ClickAdmission admission = new ClickAdmission(null, 1);
+    final AnvilSessionCore<String, String> core =
+        new AnvilSessionCore<>(policy(false, admission, (slot, state) -> null), new TestPort());
+    core.open();
+
+    assertThrows(NullPointerException.class, () -> core.click(AnvilGUI.Slot.OUTPUT));
+    assertEquals(0, admission.inFlight());
+  }
+
+  @Test
+  void terminatedSessionIsNotShownAgain() {
+    final TestPort port = new TestPort();
+    final AnvilSessionCore<String, String> core = new AnvilSessionCore<>(
+        policy(true, ClickAdmission.UNLIMITED, (slot, state) -> null), port);
+    core.open();
+
+    core.closedByPlayer();
+    // The session ends before the prevented close shows the anvil again
+    core.close(true);
+    port.tick();
+
+    assertFalse(core.isOpen());
+    assertEquals(1, port.shown);
+    assertEquals(1, port.terminated);
+  }
+
+  @Test
+  void debouncedTextIsReportedOnceTheDebouncePassed() throws InterruptedException {
+    final TickHealth health = new TickHealth();
+    health.level(AnvilGUIRuntime.DegradationLevel.DEBOUNCE);
+    health.debounceNanos(TimeUnit.MILLISECONDS.toNanos(200));
+    final TestPort port = new TestPort();
+    port.text = "a";
+    final AnvilSessionCore<String, String> core = new AnvilSessionCore<>(
+        policy(false, ClickAdmission.UNLIMITED, (slot, state) -> null, health), port);
+    core.open();
+
+    core.textChanged("ab");
+    core.textChanged("abc");
+    port.tick();
+    assertEquals(List.of("opened", "text a"), port.events);
+
+    Thread.sleep(250);
+    port.tick();
+    assertEquals(List.of("opened", "text a", "text abc"), port.events);
+  }
+
+  @Test
+  void unobservedSessionDoesNotDebounce() {
+    final TickHealth health = new TickHealth();
+    health.level(AnvilGUIRuntime.DegradationLevel.DEBOUNCE);
+    final TestPort port = new TestPort();
+    port.observed = false;
+    final AnvilSessionCore<String, String> core = new AnvilSessionCore<>(
+        policy(false, ClickAdmission.UNLIMITED, (slot, state) -> null, health), port);
+    core.open();
+
+    core.textChanged("a");
+    core.textChanged("ab");
+
+    assertTrue(port.nextTick.isEmpty());
+  }
+
+  @Test
+  void textOfTheShownAnvilIsReportedAfterOpening() {
+    final TestPort port = new TestPort();
+    port.text = "initial";
+    final AnvilSessionCore<String, String> core = new AnvilSessionCore<>(
+        policy(false, ClickAdmission.UNLIMITED, (slot, state) -> null), port);
+    // Filling the slots of the anvil reports the text while it is being shown
+    port.onShow = () -> core.textChanged(port.text);
+    core.open();
+
+    assertEquals(List.of("opened", "text initial"), port.events);
+  }
+
+  private static AnvilSessionCore.Policy<String, String> policy(
+      boolean preventClose,
+      ClickAdmission admission,
+      BiFunction<Integer, String, CompletableFuture<List<String>>> clickHandler) {
+    return policy(preventClose, admission, clickHandler, new TickHealth());
+  }
+
+  private static AnvilSessionCore.Policy<String, String> policy(
+      boolean preventClose,
+      ClickAdmission admission,
+      BiFunction<Integer, String, CompletableFuture<List<String>>> clickHandler,
+      TickHealth health) {
+    return new AnvilSessionCore.Policy<>(
+        0,
+        preventClose,
+        false,
+        clickHandler,
+        null,
+        admission,
+        List.of(),
+        action -> false,
+        health);
+  }
+
+  /**
+   * Stands in for the Bukkit side of a session, the next tick tasks run once {@link #tick()} is
+   * called
+   */
+  private static final class TestPort implements AnvilPort<String, String> {
+
+    private final Queue<Runnable> nextTick = new ArrayDeque<>();
+    /** The observation callbacks in the order they have been called */
+    private final List<String> events = new ArrayList<>();
+    private String text = "";
+    private boolean observed = true;
+    private Runnable onShow = () -> {};
+    private int shown;
+    private int terminated;
+
+    private void tick() {
+      for (int i = nextTick.size(); i > 0; i--) {
+        nextTick.poll().run();
+      }
+    }
+
+    @Override
+    public void show() {
+      shown++;
+      onShow.run();
+    }
+
+    @Override
+    public String text() {
+      return text;
+    }
+
+    @Override
+    public void clear() {}
+
+    @Override
+    public String snapshot() {
+      return "";
+    }
+
+    @Override
+    public void apply(String action) {}
+
+    @Override
+    public void runNextTick(Runnable task) {
+      nextTick.offer(task);
+    }
+
+    @Override
+    public void error(Throwable exception) {}
+
+    @Override
+    public boolean observed() {
+      return observed;
+    }
+
+    @Override
+    public void opened() {
+      events.add("opened");
+    }
+
+    @Override
+    public void textChanged(String text) {
+      events.add("text " + text);
+    }
+
+    @Override
+    public void clicked(int slot, String state) {}
+
+    @Override
+    public void applied(String action) {}
+
+    @Override
+    public void closed(String state) {}
+
+    @Override
+    public void terminated() {
+      terminated++;
+    }
+  }
+}
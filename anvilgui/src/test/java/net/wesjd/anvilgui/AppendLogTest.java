@@ -0,0 +1,98 @@
+package net.wesjd.anvilgui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.helpers.NOPLogger;
+
+class AppendLogTest {
+
+  private static final int FORMAT_VERSION = 1;
+
+  @TempDir
+  private Path directory;
+
+  @Test
+  void recordsAreReadBackInOrder() throws IOException {
+    final Path file = directory.resolve("log");
+    write(file, "a", "b", "c");
+
+    assertEquals(List.of("a", "b", "c"), read(file));
+  }
+
+  @Test
+  void tornTailIsSkippedAndTruncatedOnOpen() throws IOException {
+    final Path file = directory.resolve("log");
+    write(file, "a", "b");
+    final long intactLength = Files.size(file);
+    // A frame announcing more bytes than made it to the disk before a crash
+    append(file, ByteBuffer.allocate(11).putInt(100).putInt(0).put(new byte[] {1, 2, 3}));
+
+    assertEquals(List.of("a", "b"), read(file));
+
+    write(file, "c");
+    assertEquals(List.of("a", "b", "c"), read(file));
+    assertEquals(intactLength + frameLength("c"), Files.size(file));
+  }
+
+  @Test
+  void corruptedFrameEndsTheLog() throws IOException {
+    final Path file = directory.resolve("log");
+    write(file, "a", "b");
+    // Flip a byte of the payload of the last frame, so its checksum does not match anymore
+    final long lastPayload = Files.size(file) - 1;
+    try (SeekableByteChannel channel =
+        Files.newByteChannel(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final ByteBuffer b = ByteBuffer.allocate(1);
+      channel.position(lastPayload).read(b);
+      b.put(0, (byte) (b.get(0) ^ 0xFF)).rewind();
+      channel.position(lastPayload).write(b);
+    }
+
+    assertEquals(List.of("a"), read(file));
+  }
+
+  private static void write(Path file, String... records) throws IOException {
+    try (AppendLog<String> log = new AppendLog<>(
+        file, FORMAT_VERSION, AppendLogTest::encode, 16, "AppendLogTest", NOPLogger.NOP_LOGGER)) {
+      for (String record : records) {
+        log.append(record);
+      }
+      log.flush().join();
+    }
+  }
+
+  private static List<String> read(Path file) throws IOException {
+    final List<String> records = new ArrayList<>();
+    AppendLog.read(file, FORMAT_VERSION, AppendLogTest::decode, records::add);
+    return records;
+  }
+
+  private static void append(Path file, ByteBuffer bytes) throws IOException {
+    Files.write(file, bytes.array(), StandardOpenOption.APPEND);
+  }
+
+  /** The length of the frame of a record, its header and the modified UTF-8 of an ASCII string */
+  private static long frameLength(String record) {
+    return 8 + 2 + record.length();
+  }
+
+  private static void encode(String value, DataOutput out) throws IOException {
+    out.writeUTF(value);
+  }
+
+  private static String decode(DataInput in) throws IOException {
+    return in.readUTF();
+  }
+}
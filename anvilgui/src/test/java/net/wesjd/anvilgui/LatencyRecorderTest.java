@@ -0,0 +1,39 @@
+package net.wesjd.anvilgui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyRecorderTest {
+
+  @Test
+  void percentilesStayWithinTheBucketError() {
+    final LatencyRecorder recorder = new LatencyRecorder();
+    for (long micros = 1; micros <= 10_000; micros++) {
+      recorder.record(micros * 1000);
+    }
+
+    final SessionReplay.Percentiles percentiles = recorder.percentiles();
+    assertEquals(10_000, percentiles.count());
+    assertEquals(10_000_000, percentiles.max());
+    assertWithinError(5_000_000, percentiles.p50());
+    assertWithinError(9_000_000, percentiles.p90());
+    assertWithinError(9_900_000, percentiles.p99());
+  }
+
+  @Test
+  void smallSamplesAreExact() {
+    final LatencyRecorder recorder = new LatencyRecorder();
+    recorder.record(3);
+    recorder.record(7);
+
+    assertEquals(new SessionReplay.Percentiles(2, 3, 7, 7, 7), recorder.percentiles());
+  }
+
+  private static void assertWithinError(long expected, long actual) {
+    assertTrue(
+        actual >= expected && actual <= expected + expected / 16,
+        "expected about " + expected + " but was " + actual);
+  }
+}
@@ -0,0 +1,68 @@
+package net.wesjd.anvilgui;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Keeps the memory retained per open anvil GUI in check. Everything shared between the anvil GUIs
+ * of a builder, like the {@link AnvilGUI.Config}, and the player owned by the server are not
+ * counted.
+ */
+class SessionFootprintTest {
+
+  /**
+   * The bytes an anvil GUI may retain on its own, the {@link AnvilGUI}, its
+   * {@link AnvilGUI.ListenUp}, its {@link AnvilSessionCore} and the port of the core. About 120
+   * bytes with compressed references.
+   */
+  private static final long BUDGET_BYTES = 160;
+
+  private static final int SESSIONS = 1000;
+
+  @Test
+  void sessionStaysWithinBudget() {
+    final AnvilGUI.Config config = AnvilGUI.builder()
+        .plugin(stub(Plugin.class))
+        .onClick((slot, state) -> List.of())
+        .config();
+    final Player player = stub(Player.class);
+
+    final AnvilGUI[] sessions = new AnvilGUI[SESSIONS];
+    for (int i = 0; i < sessions.length; i++) {
+      sessions[i] = new AnvilGUI(config, player);
+    }
+
+    final GraphLayout shared = GraphLayout.parseInstance(config, player);
+    final long perSession =
+        GraphLayout.parseInstance((Object[]) sessions).subtract(shared).totalSize() / SESSIONS;
+    assertTrue(
+        perSession <= BUDGET_BYTES,
+        () -> "An anvil GUI retains "
+            + perSession
+            + " bytes, the budget is "
+            + BUDGET_BYTES
+            + " bytes:\n"
+            + GraphLayout.parseInstance(sessions[0]).subtract(shared).toFootprint());
+  }
+
+  /**
+   * Creates an implementation of a Bukkit interface that only supports identity
+   */
+  private static <T> T stub(Class<T> type) {
+    final InvocationHandler handler = (proxy, method, args) -> switch (method.getName()) {
+      case "hashCode" -> System.identityHashCode(proxy);
+      case "equals" -> proxy == args[0];
+      case "toString" -> type.getSimpleName();
+      default -> throw new UnsupportedOperationException(method.getName());
+    };
+    return type.cast(
+        Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+  }
+}
@@ -22,6 +22,7 @@ public class AnvilGUICommand implements CommandExecutor {
   private final TestPlugin plugin;
 
   private final Map<String, BuilderModifier> builderModifier = new HashMap<>();
+  private StressTest stressTest;
 
   public AnvilGUICommand(TestPlugin plugin) {
     this.plugin = plugin;
@@ -127,9 +128,13 @@ public class AnvilGUICommand implements CommandExecutor {
 
   @Override
   public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+    if (args.length > 0 && args[0].equalsIgnoreCase("stress")) {
+      return stress(sender, args);
+    }
     if (!(sender instanceof Player player)) return false;
     if (args.length == 0) {
       builderModifier.values().stream().map(BuilderModifier::example).forEach(sender::sendMessage);
+      sender.sendMessage("stress <sessions> <keystrokes/s> <clicks/s> [seconds] | stress stop");
       return true;
     }
 
@@ -161,5 +166,43 @@ public class AnvilGUICommand implements CommandExecutor {
     return true;
   }
 
+  private boolean stress(CommandSender sender, String[] args) {
+    if (args.length == 2 && args[1].equalsIgnoreCase("stop")) {
+      if (stressTest == null || !stressTest.isRunning()) {
+        sender.sendMessage("No stress test is running");
+      } else {
+        stressTest.stop();
+      }
+      return true;
+    }
+    if (args.length < 4 || args.length > 5) {
+      sender.sendMessage("Usage: /anvilgui stress <sessions> <keystrokes/s> <clicks/s> [seconds]");
+      return true;
+    }
+    if (stressTest != null && stressTest.isRunning()) {
+      sender.sendMessage("A stress test is already running, stop it with /anvilgui stress stop");
+      return true;
+    }
+
+    final int sessions, keystrokes, clicks, seconds;
+    try {
+      sessions = Integer.parseInt(args[1]);
+      keystrokes = Integer.parseInt(args[2]);
+      clicks = Integer.parseInt(args[3]);
+      seconds = args.length == 5 ? Integer.parseInt(args[4]) : 30;
+    } catch (NumberFormatException e) {
+      sender.sendMessage("Not a number: " + e.getMessage());
+      return true;
+    }
+    if (sessions <= 0 || keystrokes < 0 || clicks < 0 || seconds <= 0) {
+      sender.sendMessage("sessions and seconds must be positive, rates must not be negative");
+      return true;
+    }
+
+    stressTest = new StressTest(plugin, sender, sessions, keystrokes, clicks, seconds);
+    stressTest.start();
+    return true;
+  }
+
   private record BuilderModifier(String example, BiConsumer<AnvilGUI.Builder, String> modifier) {}
 }
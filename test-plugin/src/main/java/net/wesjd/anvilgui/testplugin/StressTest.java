@@ -0,0 +1,439 @@
+package net.wesjd.anvilgui.testplugin;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import net.wesjd.anvilgui.AnvilGUI;
+import net.wesjd.anvilgui.AnvilGUIRuntime;
+import net.wesjd.anvilgui.InMemoryAnvil;
+import net.wesjd.anvilgui.SessionReplay;
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.ClickType;
+import org.bukkit.event.inventory.InventoryAction;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.event.inventory.PrepareAnvilEvent;
+import org.bukkit.inventory.view.AnvilView;
+
+/**
+ * Drives synthetic anvil sessions on the server tick to measure the tick impact of a release.
+ * <p>
+ * The Paper API has no fake players, so most sessions are {@link InMemoryAnvil}s. They run the
+ * same session logic as an anvil GUI on the global region thread, with their next tick tasks
+ * drained once per tick, but skip the inventory packets and events a real player would cause.
+ * <p>
+ * Online players with the {@value #PERMISSION} permission take part as testers. Each gets a real
+ * {@link AnvilGUI}, driven on the thread owning the player by firing {@link PrepareAnvilEvent}s and
+ * {@link InventoryClickEvent}s through the plugin manager. These take the whole event path, with
+ * the listeners of other plugins, the inventory resync and the tick queue of the library. The API
+ * cannot set the rename text, so the keystrokes of testers do not change it.
+ */
+public class StressTest {
+
+  /** The permission of the online players that get a real anvil GUI */
+  public static final String PERMISSION = "anvilgui.stress";
+
+  private static final SessionReplay.OpenParameters PARAMETERS =
+      new SessionReplay.OpenParameters("Stress", "", false, false, 0);
+  /** Every n-th click on the output closes the session, it is opened again the next tick */
+  private static final int CLOSE_EVERY = 10;
+  private static final int MAX_TEXT_LENGTH = 32;
+
+  private final TestPlugin plugin;
+  private final CommandSender sender;
+  private final double keystrokesPerTick;
+  private final double clicksPerTick;
+  private final long durationTicks;
+
+  private final InMemoryAnvil[] sessions;
+  private final List<Tester> testers = new ArrayList<>();
+  /** The next tick tasks of the sessions, click handlers complete on other threads */
+  private final Queue<Runnable> nextTick = new ConcurrentLinkedQueue<>();
+  /** The time from a click on the output until its actions have been applied */
+  private final Recorder handlerLatency = new Recorder();
+  /** The clicks on the output slot, only counted on the tick thread */
+  private long outputClicks;
+  private final InMemoryAnvil.ClickHandler clickHandler = (slot, state) -> {
+    if (slot != AnvilGUI.Slot.OUTPUT) {
+      return CompletableFuture.completedFuture(List.of());
+    }
+    final boolean close = ++outputClicks % CLOSE_EVERY == 0;
+    return CompletableFuture.supplyAsync(() -> close
+        ? List.of(InMemoryAnvil.Action.close())
+        : List.of(InMemoryAnvil.Action.replaceInputText(state.text() + "!")));
+  };
+
+  /** Set on the thread starting the test, cleared on the global region thread */
+  private volatile ScheduledTask task;
+  private double baselineMspt = Double.NaN;
+  private double keystrokeCredit;
+  private double clickCredit;
+  private int nextKeystroke;
+  private int nextClick;
+  private long ticks;
+  private long keystrokes;
+  private long clicks;
+  private long busyClicks;
+  private long reopened;
+  private long allocatedBytes;
+  private AnvilGUIRuntime.DegradationLevel level = AnvilGUIRuntime.DegradationLevel.NORMAL;
+
+  public StressTest(
+      TestPlugin plugin,
+      CommandSender sender,
+      int sessions,
+      int keystrokesPerSecond,
+      int clicksPerSecond,
+      int seconds) {
+    this.plugin = plugin;
+    this.sender = sender;
+    this.sessions = new InMemoryAnvil[sessions];
+    this.keystrokesPerTick = keystrokesPerSecond / 20.0;
+    this.clicksPerTick = clicksPerSecond / 20.0;
+    this.durationTicks = seconds * 20L;
+  }
+
+  public void start() {
+    baselineMspt = averageTickTime();
+    allocatedBytes = allocatedBytes() < 0 ? -1 : 0;
+    for (int i = 0; i < sessions.length; i++) {
+      sessions[i] = InMemoryAnvil.open(nextTick::offer, PARAMETERS, clickHandler);
+    }
+    for (Player player : Bukkit.getOnlinePlayers()) {
+      if (player.hasPermission(PERMISSION)) {
+        testers.add(new Tester(player));
+      }
+    }
+    // The rates are spread evenly over all sessions, testers included
+    final double share = 1.0 / (sessions.length + testers.size());
+    for (Tester tester : testers) {
+      tester.start(share);
+    }
+    task = Bukkit.getGlobalRegionScheduler()
+        .runAtFixedRate(plugin, scheduledTask -> tick(sessions.length * share), 1, 1);
+    sender.sendMessage(String.format(
+        "Stressing %d sessions and %d testers with %.0f keystrokes/s and %.0f clicks/s for %d s",
+        sessions.length,
+        testers.size(),
+        keystrokesPerTick * 20,
+        clicksPerTick * 20,
+        durationTicks / 20));
+  }
+
+  /**
+   * Stops the test on the global region thread, which runs its ticks
+   */
+  public void stop() {
+    Bukkit.getGlobalRegionScheduler().execute(plugin, this::finish);
+  }
+
+  private void finish() {
+    if (task == null) {
+      return;
+    }
+    task.cancel();
+    task = null;
+    for (InMemoryAnvil session : sessions) {
+      session.close();
+    }
+    for (Tester tester : testers) {
+      tester.stop();
+    }
+    nextTick.clear();
+    report();
+  }
+
+  public boolean isRunning() {
+    return task != null;
+  }
+
+  /**
+   * Drives the in-memory sessions for one tick
+   *
+   * @param share The part of the rates going to the in-memory sessions
+   */
+  private void tick(double share) {
+    final long allocatedBefore = allocatedBytes();
+
+    Runnable queued;
+    while ((queued = nextTick.poll()) != null) {
+      queued.run();
+    }
+
+    final AnvilGUIRuntime.DegradationLevel level = AnvilGUIRuntime.get().degradationLevel();
+    if (level != this.level) {
+      this.level = level;
+      for (InMemoryAnvil session : sessions) {
+        session.degrade(level);
+      }
+    }
+
+    for (int i = 0; i < sessions.length; i++) {
+      if (!sessions[i].isOpen()) {
+        sessions[i] = InMemoryAnvil.open(nextTick::offer, PARAMETERS, clickHandler);
+        sessions[i].degrade(level);
+        reopened++;
+      }
+    }
+
+    keystrokeCredit += keystrokesPerTick * share;
+    for (; keystrokeCredit >= 1; keystrokeCredit--) {
+      final InMemoryAnvil session = sessions[nextKeystroke++ % sessions.length];
+      final String text = session.text();
+      session.type(
+          text.length() >= MAX_TEXT_LENGTH ? "" : text + (char) ('a' + keystrokes % 26));
+      keystrokes++;
+    }
+
+    clickCredit += clicksPerTick * share;
+    for (; clickCredit >= 1; clickCredit--) {
+      final InMemoryAnvil session = sessions[nextClick++ % sessions.length];
+      final long start = System.nanoTime();
+      final CompletableFuture<Void> applied = session.click(AnvilGUI.Slot.OUTPUT);
+      if (applied == null) {
+        busyClicks++;
+      } else {
+        applied.whenComplete(
+            (ignored, exception) -> handlerLatency.record(System.nanoTime() - start));
+      }
+      clicks++;
+    }
+
+    if (allocatedBytes >= 0) {
+      allocatedBytes += allocatedBytes() - allocatedBefore;
+    }
+    if (++ticks >= durationTicks) {
+      finish();
+    }
+  }
+
+  private void report() {
+    final double seconds = Math.max(ticks / 20.0, 0.05);
+    final double mspt = averageTickTime();
+    long failures = 0;
+    for (InMemoryAnvil session : sessions) {
+      failures += session.failures();
+    }
+    long keystrokes = this.keystrokes;
+    long clicks = this.clicks;
+    long busyClicks = this.busyClicks;
+    long reopened = this.reopened;
+    long allocatedBytes = this.allocatedBytes;
+    for (Tester tester : testers) {
+      keystrokes += tester.keystrokes;
+      clicks += tester.clicks;
+      busyClicks += tester.clicks - tester.handled;
+      reopened += tester.reopened;
+      if (allocatedBytes >= 0) {
+        allocatedBytes += tester.allocatedBytes;
+      }
+    }
+
+    sender.sendMessage(String.format(
+        "Stress test done after %d ticks: %d keystrokes, %d clicks (%d busy), %d reopened, %d"
+            + " failures",
+        ticks, keystrokes, clicks, busyClicks, reopened, failures));
+    if (Double.isNaN(mspt) || Double.isNaN(baselineMspt)) {
+      sender.sendMessage("MSPT: not reported by this server");
+    } else {
+      sender.sendMessage(String.format(
+          "MSPT: %.2f before, %.2f during, delta %+.2f", baselineMspt, mspt, mspt - baselineMspt));
+    }
+    sender.sendMessage(
+        allocatedBytes < 0
+            ? "Allocations: not supported by this JVM"
+            : String.format(
+                "Allocations on the tick threads: %.2f MB/s", allocatedBytes / seconds / 1e6));
+    sender.sendMessage("Handler latency: " + handlerLatency);
+    sender.sendMessage("Degradation level at the end: " + level);
+  }
+
+  private static double averageTickTime() {
+    try {
+      return Bukkit.getAverageTickTime();
+    } catch (UnsupportedOperationException e) {
+      // Folia has no single tick time
+      return Double.NaN;
+    }
+  }
+
+  private static long allocatedBytes() {
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+        && bean.isThreadAllocatedMemorySupported()
+        && bean.isThreadAllocatedMemoryEnabled()) {
+      return bean.getThreadAllocatedBytes(Thread.currentThread().threadId());
+    }
+    return -1;
+  }
+
+  /**
+   * An online player stressed with a real anvil GUI, driven on the thread owning the player
+   */
+  private final class Tester {
+
+    private final Player player;
+    private ScheduledTask task;
+    private AnvilGUI gui;
+    private double keystrokeCredit;
+    private double clickCredit;
+    private long keystrokes;
+    private long clicks;
+    /** The clicks on the output that called the click handler */
+    private long handled;
+    private long reopened;
+    private long allocatedBytes;
+
+    private Tester(Player player) {
+      this.player = player;
+      this.allocatedBytes = StressTest.this.allocatedBytes;
+    }
+
+    /**
+     * Opens the anvil GUI in the next tick and drives it every tick after that
+     *
+     * @param share The part of the rates going to this tester
+     */
+    private void start(double share) {
+      task = player.getScheduler()
+          .runAtFixedRate(plugin, scheduledTask -> tick(share), null, 1, 1);
+    }
+
+    private void stop() {
+      if (task != null) {
+        task.cancel();
+      }
+      player.getScheduler()
+          .run(
+              plugin,
+              scheduledTask -> {
+                if (gui != null && gui.isOpen()) {
+                  gui.closeInventory();
+                }
+              },
+              null);
+    }
+
+    private void tick(double share) {
+      final long allocatedBefore = allocatedBytes();
+
+      if (gui == null || !gui.isOpen()) {
+        if (gui != null) {
+          reopened++;
+        }
+        gui = open();
+      }
+
+      // Only fire events while the anvil GUI is what the player is looking at
+      if (player.getOpenInventory() instanceof AnvilView view
+          && view.getTopInventory().equals(gui.getInventory())) {
+        keystrokeCredit += keystrokesPerTick * share;
+        for (; keystrokeCredit >= 1; keystrokeCredit--) {
+          Bukkit.getPluginManager().callEvent(new PrepareAnvilEvent(view, null));
+          keystrokes++;
+        }
+
+        clickCredit += clicksPerTick * share;
+        for (; clickCredit >= 1 && gui.isOpen(); clickCredit--) {
+          Bukkit.getPluginManager()
+              .callEvent(new InventoryClickEvent(
+                  view,
+                  InventoryType.SlotType.RESULT,
+                  AnvilGUI.Slot.OUTPUT,
+                  ClickType.LEFT,
+                  InventoryAction.PICKUP_ALL));
+          clicks++;
+        }
+      }
+
+      if (allocatedBytes >= 0) {
+        allocatedBytes += allocatedBytes() - allocatedBefore;
+      }
+    }
+
+    private AnvilGUI open() {
+      return AnvilGUI.builder()
+          .plugin(plugin)
+          .title("Stress")
+          .text("Stress")
+          .onClickAsync((slot, state) -> {
+            if (slot != AnvilGUI.Slot.OUTPUT) {
+              return CompletableFuture.completedFuture(List.of());
+            }
+            final long start = System.nanoTime();
+            final AnvilGUI.ResponseAction recordLatency = AnvilGUI.ResponseAction.run(
+                () -> handlerLatency.record(System.nanoTime() - start));
+            final boolean close = ++handled % CLOSE_EVERY == 0;
+            return CompletableFuture.supplyAsync(() -> close
+                ? List.of(recordLatency, AnvilGUI.ResponseAction.close())
+                : List.of(
+                    AnvilGUI.ResponseAction.replaceInputText(state.text() + "!"),
+                    recordLatency));
+          })
+          .open(player);
+    }
+  }
+
+  /**
+   * Collects nanosecond samples in a histogram of fixed size, with 16 buckets per power of two
+   */
+  private static final class Recorder {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] buckets = new long[(Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+    private long count;
+    private long max;
+
+    synchronized void record(long nanos) {
+      final long value = Math.max(nanos, 0);
+      buckets[bucket(value)]++;
+      count++;
+      max = Math.max(max, value);
+    }
+
+    @Override
+    public synchronized String toString() {
+      if (count == 0) {
+        return "no completed clicks";
+      }
+      return String.format(
+          "n=%d p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+          count, at(0.5) / 1e6, at(0.9) / 1e6, at(0.99) / 1e6, max / 1e6);
+    }
+
+    /** Returns the highest value of the bucket holding the sample at the quantile */
+    private long at(double quantile) {
+      final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i];
+        if (seen >= rank) {
+          return Math.min(lowestValue(i + 1) - 1, max);
+        }
+      }
+      return max;
+    }
+
+    private static int bucket(long value) {
+      if (value < SUB_BUCKETS) {
+        return (int) value;
+      }
+      final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+      return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long lowestValue(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+        return bucket;
+      }
+      return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (bucket / SUB_BUCKETS - 1);
+    }
+  }
+}